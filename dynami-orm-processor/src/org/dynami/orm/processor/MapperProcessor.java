@@ -0,0 +1,370 @@
+/*
+ * Copyright 2017 Alessandro Atria - a.atria@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dynami.orm.processor;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+/**
+ * Generates the org.dynami.orm.EntityMapper of each class annotated with IEntity, named &lt;Entity&gt;_DynamiMapper,
+ * calling getters, setters and no-arg constructor directly and reading and binding columns with the JDBC method of the field type.
+ * Fields are the IField ones of the class and its superclasses having public getter and setter, as DAO looks them up.
+ * Classes the generated code can't reach (private or inner classes) are skipped and accessed by reflection.
+ * Annotations are matched by name, so the processor doesn't depend on Dynami-Orm.
+ *
+ * @author Alessandro Atria - a.atria@gmail.com
+ *
+ */
+@SupportedAnnotationTypes(MapperProcessor.ENTITY)
+public class MapperProcessor extends AbstractProcessor {
+	static final String ENTITY = "org.dynami.orm.DAO.IEntity";
+	static final String FIELD = "org.dynami.orm.DAO.IField";
+	static final String SUFFIX = "_DynamiMapper";
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment round) {
+		for(TypeElement annotation : annotations){
+			for(Element element : round.getElementsAnnotatedWith(annotation)){
+				if(element.getKind() != ElementKind.CLASS) continue;
+				final TypeElement entity = (TypeElement)element;
+				if(!isReachable(entity)){
+					processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, "No mapper generated for "+entity.getQualifiedName()+", it isn't reachable from its package", entity);
+					continue;
+				}
+				try {
+					generate(entity);
+				} catch (Exception e) {
+					processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Unable to generate mapper of "+entity.getQualifiedName()+": "+e, entity);
+				}
+			}
+		}
+		return false;
+	}
+
+	private void generate(TypeElement entity) throws Exception {
+		final String pkg = packageOf(entity).getQualifiedName().toString();
+		final String binary = processingEnv.getElementUtils().getBinaryName(entity).toString();
+		final String simple = (pkg.isEmpty()? binary : binary.substring(pkg.length() + 1)).replace('$', '_')+SUFFIX;
+		final String type = entity.getQualifiedName().toString();
+		final List<Property> properties = properties(entity);
+
+		try(PrintWriter out = new PrintWriter(processingEnv.getFiler().createSourceFile(pkg.isEmpty()? simple : pkg+"."+simple, entity).openWriter())){
+			if(!pkg.isEmpty()){
+				out.println("package "+pkg+";");
+				out.println();
+			}
+			out.println("/**");
+			out.println(" * Generated by "+MapperProcessor.class.getName()+" from "+type+", do not edit");
+			out.println(" */");
+			out.println("public final class "+simple+" implements org.dynami.orm.EntityMapper<"+type+"> {");
+			out.print("\tprivate static final String[] FIELDS = {");
+			for (int i = 0; i < properties.size(); i++) {
+				out.print((i > 0? ", \"" : "\"")+properties.get(i).name+"\"");
+			}
+			out.println("};");
+			out.println();
+			out.println("\t@Override");
+			out.println("\tpublic Class<"+type+"> entity() {");
+			out.println("\t\treturn "+type+".class;");
+			out.println("\t}");
+			out.println();
+			out.println("\t@Override");
+			out.println("\tpublic String[] fields() {");
+			out.println("\t\treturn FIELDS.clone();");
+			out.println("\t}");
+			out.println();
+			out.println("\t@Override");
+			out.println("\tpublic "+type+" newInstance() {");
+			out.println("\t\treturn "+(hasConstructor(entity)? "new "+type+"()" : "null")+";");
+			out.println("\t}");
+			out.println();
+			out.println("\t@Override");
+			out.println("\tpublic Object get("+type+" entity, int field) {");
+			out.println("\t\tswitch (field) {");
+			for (int i = 0; i < properties.size(); i++) {
+				out.println("\t\tcase "+i+": return entity."+properties.get(i).getter+"();");
+			}
+			out.println("\t\tdefault: throw new IndexOutOfBoundsException(\"Field \"+field);");
+			out.println("\t\t}");
+			out.println("\t}");
+			out.println();
+			out.println("\t@Override");
+			out.println("\t@SuppressWarnings({\"unchecked\", \"rawtypes\"})");
+			out.println("\tpublic void set("+type+" entity, int field, Object value) {");
+			out.println("\t\tswitch (field) {");
+			for (int i = 0; i < properties.size(); i++) {
+				final Property p = properties.get(i);
+				out.println("\t\tcase "+i+": entity."+p.setter+"("+p.cast("value")+"); return;");
+			}
+			out.println("\t\tdefault: throw new IndexOutOfBoundsException(\"Field \"+field);");
+			out.println("\t\t}");
+			out.println("\t}");
+			out.println();
+			out.println("\t@Override");
+			out.println("\tpublic void bind(java.sql.PreparedStatement pstmt, int idx, "+type+" entity, int field) throws java.sql.SQLException {");
+			out.println("\t\tswitch (field) {");
+			for (int i = 0; i < properties.size(); i++) {
+				out.println("\t\tcase "+i+": "+properties.get(i).bind()+" return;");
+			}
+			out.println("\t\tdefault: throw new IndexOutOfBoundsException(\"Field \"+field);");
+			out.println("\t\t}");
+			out.println("\t}");
+			out.println();
+			out.println("\t@Override");
+			out.println("\tpublic boolean read("+type+" entity, int field, java.sql.ResultSet res, int column) throws java.sql.SQLException {");
+			out.println("\t\tswitch (field) {");
+			for (int i = 0; i < properties.size(); i++) {
+				final String read = properties.get(i).read();
+				if(read != null){
+					out.println("\t\tcase "+i+": "+read+" return true;");
+				}
+			}
+			out.println("\t\tdefault: return false;");
+			out.println("\t\t}");
+			out.println("\t}");
+			out.println("}");
+		}
+	}
+
+	/**
+	 * IField fields of entity and its superclasses with public getter and setter, in the order DAO finds them
+	 */
+	private List<Property> properties(TypeElement entity) {
+		final List<ExecutableElement> methods = ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(entity));
+		final List<Property> properties = new ArrayList<>();
+		final Set<String> names = new HashSet<>();
+		for(TypeElement c = entity; c != null && !c.getQualifiedName().contentEquals("java.lang.Object"); c = superclass(c)){
+			for(VariableElement field : ElementFilter.fieldsIn(c.getEnclosedElements())){
+				if(!isAnnotated(field, FIELD) || !names.add(field.getSimpleName().toString())) continue;
+				final String name = field.getSimpleName().toString();
+				final TypeMirror type = field.asType();
+				final ExecutableElement getter = method(methods, accessor(type.getKind() == TypeKind.BOOLEAN? "is" : "get", name), null);
+				final ExecutableElement setter = method(methods, accessor("set", name), type);
+				if(getter != null && setter != null){
+					properties.add(new Property(name, type, getter.getSimpleName().toString(), setter.getSimpleName().toString()));
+				}
+			}
+		}
+		return properties;
+	}
+
+	private ExecutableElement method(List<ExecutableElement> methods, String name, TypeMirror parameter) {
+		for(ExecutableElement m : methods){
+			if(!m.getSimpleName().contentEquals(name) || !m.getModifiers().contains(Modifier.PUBLIC) || m.getModifiers().contains(Modifier.STATIC)) continue;
+			if(parameter == null){
+				if(m.getParameters().isEmpty()) return m;
+			} else if(m.getParameters().size() == 1 && processingEnv.getTypeUtils().isSameType(
+					processingEnv.getTypeUtils().erasure(m.getParameters().get(0).asType()), processingEnv.getTypeUtils().erasure(parameter))){
+				return m;
+			}
+		}
+		return null;
+	}
+
+	private boolean hasConstructor(TypeElement entity) {
+		if(entity.getModifiers().contains(Modifier.ABSTRACT)) return false;
+		for(ExecutableElement c : ElementFilter.constructorsIn(entity.getEnclosedElements())){
+			if(c.getParameters().isEmpty() && !c.getModifiers().contains(Modifier.PRIVATE)) return true;
+		}
+		return false;
+	}
+
+	private static boolean isReachable(TypeElement entity) {
+		for(Element e = entity; e.getKind() != ElementKind.PACKAGE; e = e.getEnclosingElement()){
+			if(e.getModifiers().contains(Modifier.PRIVATE)) return false;
+			if(e != entity && !(e instanceof TypeElement)) return false;
+			if(e.getEnclosingElement().getKind() != ElementKind.PACKAGE && !e.getModifiers().contains(Modifier.STATIC)) return false;
+		}
+		return true;
+	}
+
+	private static boolean isAnnotated(Element element, String annotation) {
+		for(AnnotationMirror a : element.getAnnotationMirrors()){
+			if(((TypeElement)a.getAnnotationType().asElement()).getQualifiedName().contentEquals(annotation)) return true;
+		}
+		return false;
+	}
+
+	private static TypeElement superclass(TypeElement c) {
+		final TypeMirror s = c.getSuperclass();
+		return (s.getKind() == TypeKind.DECLARED)? (TypeElement)((DeclaredType)s).asElement() : null;
+	}
+
+	private static PackageElement packageOf(Element e) {
+		while(e.getKind() != ElementKind.PACKAGE){
+			e = e.getEnclosingElement();
+		}
+		return (PackageElement)e;
+	}
+
+	private static String accessor(String prefix, String field) {
+		return prefix+Character.toUpperCase(field.charAt(0))+field.substring(1);
+	}
+
+	/**
+	 * Field with its accessors and the generated code converting and binding its values, as DAO does by reflection
+	 */
+	private final class Property {
+		final String name;
+		final TypeMirror type;
+		final String getter;
+		final String setter;
+		final String erasure;
+
+		Property(String name, TypeMirror type, String getter, String setter) {
+			this.name = name;
+			this.type = type;
+			this.getter = getter;
+			this.setter = setter;
+			this.erasure = processingEnv.getTypeUtils().erasure(type).toString();
+		}
+
+		/**
+		 * Value converted to field type, numbers to the field numeric type
+		 */
+		String cast(String value) {
+			switch (type.getKind()) {
+			case LONG: return "((Number)"+value+").longValue()";
+			case INT: return "((Number)"+value+").intValue()";
+			case SHORT: return "((Number)"+value+").shortValue()";
+			case BYTE: return "((Number)"+value+").byteValue()";
+			case DOUBLE: return "((Number)"+value+").doubleValue()";
+			case FLOAT: return "((Number)"+value+").floatValue()";
+			case BOOLEAN: return "(("+value+" instanceof Number)? ((Number)"+value+").intValue() != 0 : (Boolean)"+value+")";
+			case CHAR: return "(Character)"+value;
+			default:
+				final String number = numberValue();
+				if(number != null){
+					return "("+value+" instanceof Number)? "+erasure+".valueOf(((Number)"+value+")."+number+"()) : ("+erasure+")"+value;
+				}
+				if("java.lang.Boolean".equals(erasure)){
+					return "("+value+" instanceof Number)? Boolean.valueOf(((Number)"+value+").intValue() != 0) : ("+erasure+")"+value;
+				}
+				return "("+erasure+")"+value;
+			}
+		}
+
+		/**
+		 * Statement binding the field value, primitives with typed setters, booleans as 1 and 0, nulls typed by field type
+		 */
+		String bind() {
+			final String value = "entity."+getter+"()";
+			switch (type.getKind()) {
+			case DOUBLE: return "pstmt.setDouble(idx, "+value+");";
+			case LONG: return "pstmt.setLong(idx, "+value+");";
+			case INT: return "pstmt.setInt(idx, "+value+");";
+			case BOOLEAN: return "pstmt.setInt(idx, "+value+"? 1 : 0);";
+			case DECLARED:
+			case ARRAY:
+				final String nullType;
+				if("java.lang.String".equals(erasure)){
+					nullType = "CHAR";
+				} else if("java.util.Date".equals(erasure)){
+					nullType = "DATE";
+				} else {
+					nullType = "NUMERIC";
+				}
+				final String bound = "java.lang.Boolean".equals(erasure)? "(Boolean)v? 1 : 0" : "v";
+				return "{ Object v = "+value+"; if(v == null) pstmt.setNull(idx, java.sql.Types."+nullType+"); else pstmt.setObject(idx, "+bound+"); }";
+			default: return "pstmt.setObject(idx, "+value+");";
+			}
+		}
+
+		/**
+		 * Statement setting the field from the column, read with the getter of field type,
+		 * or with getObject and converted for boxed numbers and booleans as DAO does. Null if field type has no getter.
+		 */
+		String read() {
+			final String getter;
+			switch (type.getKind()) {
+			case DOUBLE: getter = "res.getDouble(column)"; break;
+			case FLOAT: getter = "res.getFloat(column)"; break;
+			case BOOLEAN: getter = "res.getBoolean(column)"; break;
+			case INT: getter = "res.getInt(column)"; break;
+			case SHORT: getter = "res.getShort(column)"; break;
+			case LONG: getter = "res.getLong(column)"; break;
+			case DECLARED:
+				if("java.lang.String".equals(erasure)){
+					getter = "res.getString(column)";
+				} else if("java.util.Date".equals(erasure)){
+					getter = "res.getDate(column)";
+				} else if(isBoxed()){
+					return "{ Object v = res.getObject(column); entity."+setter+"("+cast("v")+"); }";
+				} else {
+					return null;
+				}
+				break;
+			default: return null;
+			}
+			return "entity."+setter+"("+getter+");";
+		}
+
+		/**
+		 * Boxed types read by DAO with getObject
+		 */
+		private boolean isBoxed() {
+			switch (erasure) {
+			case "java.lang.Long":
+			case "java.lang.Integer":
+			case "java.lang.Short":
+			case "java.lang.Double":
+			case "java.lang.Float":
+			case "java.lang.Boolean":
+				return true;
+			default:
+				return false;
+			}
+		}
+
+		private String numberValue() {
+			switch (erasure) {
+			case "java.lang.Long": return "longValue";
+			case "java.lang.Integer": return "intValue";
+			case "java.lang.Short": return "shortValue";
+			case "java.lang.Byte": return "byteValue";
+			case "java.lang.Double": return "doubleValue";
+			case "java.lang.Float": return "floatValue";
+			default: return null;
+			}
+		}
+	}
+}
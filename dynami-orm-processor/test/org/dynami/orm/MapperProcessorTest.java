@@ -0,0 +1,331 @@
+/*
+ * Copyright 2017 Alessandro Atria - a.atria@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dynami.orm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.dynami.orm.processor.MapperProcessor;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Compiles the same entities twice, with the processor and without, and checks that the generated mappers
+ * bind, read and convert fields as DAO does by reflection.
+ * The test lives in org.dynami.orm to reach the statement plans and row mappers DAO uses.
+ */
+public class MapperProcessorTest {
+	private static final String BASE =
+			"package %s;\n"+
+			"import org.dynami.orm.DAO.IField;\n"+
+			"public abstract class Base {\n"+
+			"	@IField(pk = true) private long id;\n"+
+			"	@IField private String name;\n"+
+			"	public long getId() { return id; }\n"+
+			"	public void setId(long id) { this.id = id; }\n"+
+			"	public String getName() { return name; }\n"+
+			"	public void setName(String name) { this.name = name; }\n"+
+			"}\n";
+
+	private static final String SAMPLE =
+			"package %s;\n"+
+			"import java.util.Date;\n"+
+			"import org.dynami.orm.DAO.IEntity;\n"+
+			"import org.dynami.orm.DAO.IField;\n"+
+			"@IEntity(name = \"sample\")\n"+
+			"public class Sample extends Base {\n"+
+			"	@IField private int qty;\n"+
+			"	@IField private short lot;\n"+
+			"	@IField private double price;\n"+
+			"	@IField private float ratio;\n"+
+			"	@IField private boolean active;\n"+
+			"	@IField private Long volume;\n"+
+			"	@IField private Integer count;\n"+
+			"	@IField private Double bid;\n"+
+			"	@IField private Boolean flag;\n"+
+			"	@IField private Date day;\n"+
+			"	public int getQty() { return qty; }\n"+
+			"	public void setQty(int qty) { this.qty = qty; }\n"+
+			"	public short getLot() { return lot; }\n"+
+			"	public void setLot(short lot) { this.lot = lot; }\n"+
+			"	public double getPrice() { return price; }\n"+
+			"	public void setPrice(double price) { this.price = price; }\n"+
+			"	public float getRatio() { return ratio; }\n"+
+			"	public void setRatio(float ratio) { this.ratio = ratio; }\n"+
+			"	public boolean isActive() { return active; }\n"+
+			"	public void setActive(boolean active) { this.active = active; }\n"+
+			"	public Long getVolume() { return volume; }\n"+
+			"	public void setVolume(Long volume) { this.volume = volume; }\n"+
+			"	public Integer getCount() { return count; }\n"+
+			"	public void setCount(Integer count) { this.count = count; }\n"+
+			"	public Double getBid() { return bid; }\n"+
+			"	public void setBid(Double bid) { this.bid = bid; }\n"+
+			"	public Boolean getFlag() { return flag; }\n"+
+			"	public void setFlag(Boolean flag) { this.flag = flag; }\n"+
+			"	public Date getDay() { return day; }\n"+
+			"	public void setDay(Date day) { this.day = day; }\n"+
+			"}\n";
+
+	private static final String HOLDER =
+			"package %s;\n"+
+			"import org.dynami.orm.DAO.IEntity;\n"+
+			"import org.dynami.orm.DAO.IField;\n"+
+			"public class Holder {\n"+
+			"	@IEntity(name = \"nested\")\n"+
+			"	public static class Nested {\n"+
+			"		@IField(pk = true) private long id;\n"+
+			"		@IField private double value;\n"+
+			"		public long getId() { return id; }\n"+
+			"		public void setId(long id) { this.id = id; }\n"+
+			"		public double getValue() { return value; }\n"+
+			"		public void setValue(double value) { this.value = value; }\n"+
+			"	}\n"+
+			"}\n";
+
+	private static Path dir;
+	private static URLClassLoader loader;
+
+	@BeforeClass
+	public static void compile() throws Exception {
+		dir = Files.createTempDirectory("mappers");
+		compile("generated", true);
+		compile("reflective", false);
+		loader = new URLClassLoader(new URL[]{ dir.resolve("classes").toUri().toURL() }, MapperProcessorTest.class.getClassLoader());
+	}
+
+	@AfterClass
+	public static void cleanUp() throws Exception {
+		loader.close();
+		try(Stream<Path> files = Files.walk(dir)){
+			files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+		}
+	}
+
+	private static void compile(String pkg, boolean processor) throws IOException {
+		final List<File> sources = new ArrayList<>();
+		sources.add(source(pkg, "Base", BASE));
+		sources.add(source(pkg, "Sample", SAMPLE));
+		sources.add(source(pkg, "Holder", HOLDER));
+		final File classes = dir.resolve("classes").toFile();
+		classes.mkdirs();
+		final JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+		final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+		try(StandardJavaFileManager files = javac.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8)){
+			final List<String> options = new ArrayList<>(Arrays.asList(
+					"-d", classes.getPath(),
+					"-s", dir.resolve("generated-sources").toFile().getPath(),
+					"-classpath", new File(EntityMapper.class.getProtectionDomain().getCodeSource().getLocation().getPath()).getPath()));
+			if(!processor) options.add("-proc:none");
+			dir.resolve("generated-sources").toFile().mkdirs();
+			final JavaCompiler.CompilationTask task = javac.getTask(null, files, diagnostics, options, null, files.getJavaFileObjectsFromFiles(sources));
+			if(processor) task.setProcessors(Collections.singletonList(new MapperProcessor()));
+			assertTrue(diagnostics.getDiagnostics().toString(), task.call());
+		}
+	}
+
+	private static File source(String pkg, String name, String template) throws IOException {
+		final File file = dir.resolve("src").resolve(pkg).resolve(name+".java").toFile();
+		file.getParentFile().mkdirs();
+		Files.write(file.toPath(), String.format(template, pkg).getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+
+	private static Class<?> load(String name) throws Exception {
+		return Class.forName(name, true, loader);
+	}
+
+	@Test
+	public void mappersAreGeneratedOnlyByTheProcessor() throws Exception {
+		assertTrue(dir.resolve("generated-sources/generated/Sample_DynamiMapper.java").toFile().exists());
+		assertTrue(dir.resolve("generated-sources/generated/Holder_Nested_DynamiMapper.java").toFile().exists());
+		assertFalse(dir.resolve("generated-sources/generated/Base_DynamiMapper.java").toFile().exists());
+		assertFalse(dir.resolve("generated-sources/reflective").toFile().exists());
+
+		final EntityMapper<Object> sample = DAOReflect.mapper(load("generated.Sample"));
+		assertNotNull(sample);
+		assertEquals(Arrays.asList("qty", "lot", "price", "ratio", "active", "volume", "count", "bid", "flag", "day", "id", "name"),
+				Arrays.asList(sample.fields()));
+		assertNotNull(DAOReflect.mapper(load("generated.Holder$Nested")));
+		assertNull(DAOReflect.mapper(load("reflective.Sample")));
+		assertNull(DAOReflect.mapper(load("reflective.Holder$Nested")));
+	}
+
+	@Test
+	public void bindsAsReflection() throws Exception {
+		assertEquals(inserted("reflective.Sample", true), inserted("generated.Sample", true));
+		assertEquals(inserted("reflective.Sample", false), inserted("generated.Sample", false));
+		assertEquals(inserted("reflective.Holder$Nested", true), inserted("generated.Holder$Nested", true));
+	}
+
+	@Test
+	public void readsAsReflection() throws Exception {
+		final String[] labels = {"id", "name", "qty", "lot", "price", "ratio", "active", "day", "volume", "count", "bid", "flag"};
+		final Object[] row = {7L, "seven", 3L, 2, 1.25, 0.5, 1, new java.sql.Date(86400000L), 9, 4L, 2, 1};
+		assertEquals(values(read("reflective.Sample", labels, row)), values(read("generated.Sample", labels, row)));
+		final Object[] nulls = {7L, null, 3L, 2, 1.25, 0.5, 0, null, null, null, null, null};
+		assertEquals(values(read("reflective.Sample", labels, nulls)), values(read("generated.Sample", labels, nulls)));
+		assertEquals(values(read("reflective.Holder$Nested", new String[]{"ID", "VALUE"}, new Object[]{9, 4.5})),
+				values(read("generated.Holder$Nested", new String[]{"ID", "VALUE"}, new Object[]{9, 4.5})));
+	}
+
+	@Test
+	public void readsBoxedFieldsAsTheirType() throws Exception {
+		final String[] labels = {"id", "volume", "count", "bid", "flag"};
+		final Object[] row = {7, 9, 4L, 2, 1};
+		for(String name : new String[]{"reflective.Sample", "generated.Sample"}){
+			final List<String> values = values(read(name, labels, row));
+			assertTrue(name+" "+values, values.containsAll(Arrays.asList("volume=Long:9", "count=Integer:4", "bid=Double:2.0", "flag=Boolean:true")));
+		}
+	}
+
+	@Test
+	public void convertsAsReflection() throws Exception {
+		assertEquals(values(valued("reflective.Sample", 5)), values(valued("generated.Sample", 5)));
+		assertEquals(values(valued("reflective.Sample", 5.0f)), values(valued("generated.Sample", 5.0f)));
+		assertEquals(values(valued("reflective.Holder$Nested", 5)), values(valued("generated.Holder$Nested", 5)));
+	}
+
+	/**
+	 * Entity with all fields valued, or with only primitive ones
+	 */
+	private static Object sample(String name, boolean full) throws Exception {
+		final Object entity = DAOReflect.plan(load(name)).newInstance();
+		for(Field f : DAOReflect.fields(entity.getClass(), true)){
+			final Class<?> type = f.getType();
+			if(type.equals(long.class) || type.equals(Long.class)){
+				DAOReflect.set(entity, f, 11L);
+			} else if(type.equals(int.class) || type.equals(Integer.class)){
+				DAOReflect.set(entity, f, 12);
+			} else if(type.equals(short.class)){
+				DAOReflect.set(entity, f, (short)13);
+			} else if(type.equals(double.class) || type.equals(Double.class)){
+				DAOReflect.set(entity, f, 1.5);
+			} else if(type.equals(float.class)){
+				DAOReflect.set(entity, f, 2.5f);
+			} else if(type.equals(boolean.class) || type.equals(Boolean.class)){
+				DAOReflect.set(entity, f, true);
+			} else if(full && type.equals(String.class)){
+				DAOReflect.set(entity, f, "name");
+			} else if(full && type.equals(java.util.Date.class)){
+				DAOReflect.set(entity, f, new java.util.Date(1500000000000L));
+			}
+			if(!full && !type.isPrimitive()){
+				DAOReflect.set(entity, f, null);
+			}
+		}
+		return entity;
+	}
+
+	/**
+	 * Calls made on statement binding the insert of a sample entity
+	 */
+	private static List<String> inserted(String name, boolean full) throws Exception {
+		final Object entity = sample(name, full);
+		final List<String> calls = new ArrayList<>();
+		final PreparedStatement pstmt = (PreparedStatement)Proxy.newProxyInstance(loader, new Class<?>[]{PreparedStatement.class}, (proxy, method, args) -> {
+			calls.add(method.getName()+Arrays.toString(args));
+			return null;
+		});
+		DAOReflect.plan(entity.getClass()).insert.bind(pstmt, entity);
+		return calls;
+	}
+
+	/**
+	 * Entity mapped from a single row, with values returned as a driver would by each getter
+	 */
+	private static Object read(String name, String[] labels, Object[] row) throws Exception {
+		final ResultSetMetaData md = (ResultSetMetaData)Proxy.newProxyInstance(loader, new Class<?>[]{ResultSetMetaData.class}, (proxy, method, args) -> {
+			switch (method.getName()) {
+			case "getColumnCount": return labels.length;
+			case "getColumnLabel": return labels[(Integer)args[0] - 1];
+			default: throw new UnsupportedOperationException(method.getName());
+			}
+		});
+		final ResultSet res = (ResultSet)Proxy.newProxyInstance(loader, new Class<?>[]{ResultSet.class}, (proxy, method, args) -> {
+			final Object v = row[(Integer)args[0] - 1];
+			switch (method.getName()) {
+			case "getString": return (v == null)? null : v.toString();
+			case "getDate": return v;
+			case "getObject": return v;
+			case "getDouble": return (v == null)? 0.0 : ((Number)v).doubleValue();
+			case "getFloat": return (v == null)? 0.0f : ((Number)v).floatValue();
+			case "getLong": return (v == null)? 0L : ((Number)v).longValue();
+			case "getInt": return (v == null)? 0 : ((Number)v).intValue();
+			case "getShort": return (v == null)? (short)0 : ((Number)v).shortValue();
+			case "getBoolean": return v != null && ((Number)v).intValue() != 0;
+			default: throw new UnsupportedOperationException(method.getName());
+			}
+		});
+		final EntityPlan plan = DAOReflect.plan(load(name));
+		final Object entity = plan.newInstance();
+		new RowMapper(plan, Collections.<Fetch>emptyList(), md).map(entity, res);
+		return entity;
+	}
+
+	/**
+	 * Entity whose numeric fields are all set from the same number
+	 */
+	private static Object valued(String name, Number value) throws Exception {
+		final Object entity = DAOReflect.plan(load(name)).newInstance();
+		for(Field f : DAOReflect.fields(entity.getClass(), true)){
+			if(f.getType().isPrimitive()? f.getType() != boolean.class : Number.class.isAssignableFrom(f.getType())){
+				DAOReflect.set(entity, f, value);
+			}
+		}
+		return entity;
+	}
+
+	/**
+	 * Field names and values of entity, in field order
+	 */
+	private static List<String> values(Object entity) throws Exception {
+		final List<String> values = new ArrayList<>();
+		for(Field f : DAOReflect.fields(entity.getClass(), true)){
+			final Object v = DAOReflect.get(entity, f);
+			values.add(f.getName()+"="+((v == null)? null : v.getClass().getSimpleName()+":"+v));
+		}
+		return values;
+	}
+}
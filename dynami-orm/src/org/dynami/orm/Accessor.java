@@ -0,0 +1,343 @@
+/*
+ * Copyright 2017 Alessandro Atria - a.atria@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dynami.orm;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+
+import org.dynami.orm.DAO.IField;
+
+/**
+ * Compiled getter/setter pair of a single {@link IField} of an entity class.
+ * Methods are resolved once and bound through {@link LambdaMetafactory}, so the JIT can inline them as plain calls.
+ * Fields of type double, long, int, boolean, float and short get also primitive variants, avoiding boxing on the hot path.
+ * When the entity class isn't reachable from this class (non public class or different class loader) method handles are used instead.
+ * Fields listed by the {@link EntityMapper} generated for the entity class are accessed through it, without resolving their methods.
+ *
+ * @author Alessandro Atria - a.atria@gmail.com
+ *
+ */
+final class Accessor {
+	interface Getter { Object get(Object entity); }
+	interface Setter { void set(Object entity, Object value); }
+	interface DoubleGetter { double get(Object entity); }
+	interface DoubleSetter { void set(Object entity, double value); }
+	interface LongGetter { long get(Object entity); }
+	interface LongSetter { void set(Object entity, long value); }
+	interface IntGetter { int get(Object entity); }
+	interface IntSetter { void set(Object entity, int value); }
+	interface BooleanGetter { boolean get(Object entity); }
+	interface BooleanSetter { void set(Object entity, boolean value); }
+	interface FloatSetter { void set(Object entity, float value); }
+	interface ShortSetter { void set(Object entity, short value); }
+
+	private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+	final Field field;
+	final Class<?> type;
+	final IField meta;
+	final String name;
+	/**
+	 * Generated mapper of entity and index of this field in it, null and -1 if field is accessed by reflection
+	 */
+	final EntityMapper<Object> mapper;
+	final int mapped;
+
+	private final Getter getter;
+	private final Setter setter;
+	private final Setter loader;
+	private final Setter lazyLoader;
+	private final DoubleGetter doubleGetter;
+	private final DoubleSetter doubleSetter;
+	private final LongGetter longGetter;
+	private final LongSetter longSetter;
+	private final IntGetter intGetter;
+	private final IntSetter intSetter;
+	private final BooleanGetter booleanGetter;
+	private final BooleanSetter booleanSetter;
+	private final FloatSetter floatSetter;
+	private final ShortSetter shortSetter;
+	private final Exception missingGetter;
+	private final Exception missingSetter;
+
+	private Accessor(Class<?> clazz, Field field) {
+		this.field = field;
+		this.type = field.getType();
+		this.meta = field.getAnnotation(IField.class);
+		this.name = DAOReflect.getName(field);
+
+		final EntityMapper<Object> mapper = DAOReflect.mapper(clazz);
+		final int mapped = (mapper == null)? -1 : Arrays.asList(mapper.fields()).indexOf(field.getName());
+		this.mapper = (mapped < 0)? null : mapper;
+		this.mapped = mapped;
+
+		Method g = null, s = null, l = null, ll = null;
+		Exception missingGetter = null, missingSetter = null;
+		if(mapped < 0){
+			try {
+				g = clazz.getMethod(getter(field.getName(), type.equals(Boolean.TYPE)));
+			} catch (NoSuchMethodException e) {
+				missingGetter = e;
+			}
+			try {
+				s = clazz.getMethod(setter(field.getName()), type);
+			} catch (NoSuchMethodException e) {
+				missingSetter = e;
+			}
+		}
+		if(meta != null && !meta.fk().equals(Object.class)){
+			try {
+				l = clazz.getMethod(loader(meta.fk().getSimpleName()), meta.fk());
+			} catch (NoSuchMethodException e) {}
+			try {
+				ll = clazz.getMethod(loader(meta.fk().getSimpleName()), Lazy.class);
+			} catch (NoSuchMethodException e) {}
+		}
+		this.missingGetter = missingGetter;
+		this.missingSetter = missingSetter;
+		final boolean direct = isReachable(clazz);
+		final Class<?> boxed = MethodType.methodType(type).wrap().returnType();
+
+		if(mapped >= 0){
+			this.getter = e -> mapper.get(e, mapped);
+			this.setter = (e, v) -> mapper.set(e, mapped, v);
+		} else {
+			this.getter = (g == null)? null : bind(Getter.class, clazz, g, direct, MethodType.methodType(Object.class, Object.class), MethodType.methodType(boxed, clazz));
+			this.setter = (s == null)? null : bind(Setter.class, clazz, s, direct, MethodType.methodType(void.class, Object.class, Object.class), MethodType.methodType(void.class, clazz, boxed));
+		}
+		this.loader = (l == null)? null : bind(Setter.class, clazz, l, direct, MethodType.methodType(void.class, Object.class, Object.class), MethodType.methodType(void.class, clazz, meta.fk()));
+		this.lazyLoader = (ll == null)? null : bind(Setter.class, clazz, ll, direct, MethodType.methodType(void.class, Object.class, Object.class), MethodType.methodType(void.class, clazz, Lazy.class));
+
+		this.doubleGetter = (g != null && type.equals(double.class))? bind(DoubleGetter.class, clazz, g, direct, MethodType.methodType(double.class, Object.class), MethodType.methodType(double.class, clazz)) : null;
+		this.doubleSetter = (s != null && type.equals(double.class))? bind(DoubleSetter.class, clazz, s, direct, MethodType.methodType(void.class, Object.class, double.class), MethodType.methodType(void.class, clazz, double.class)) : null;
+		this.longGetter = (g != null && type.equals(long.class))? bind(LongGetter.class, clazz, g, direct, MethodType.methodType(long.class, Object.class), MethodType.methodType(long.class, clazz)) : null;
+		this.longSetter = (s != null && type.equals(long.class))? bind(LongSetter.class, clazz, s, direct, MethodType.methodType(void.class, Object.class, long.class), MethodType.methodType(void.class, clazz, long.class)) : null;
+		this.intGetter = (g != null && type.equals(int.class))? bind(IntGetter.class, clazz, g, direct, MethodType.methodType(int.class, Object.class), MethodType.methodType(int.class, clazz)) : null;
+		this.intSetter = (s != null && type.equals(int.class))? bind(IntSetter.class, clazz, s, direct, MethodType.methodType(void.class, Object.class, int.class), MethodType.methodType(void.class, clazz, int.class)) : null;
+		this.booleanGetter = (g != null && type.equals(boolean.class))? bind(BooleanGetter.class, clazz, g, direct, MethodType.methodType(boolean.class, Object.class), MethodType.methodType(boolean.class, clazz)) : null;
+		this.booleanSetter = (s != null && type.equals(boolean.class))? bind(BooleanSetter.class, clazz, s, direct, MethodType.methodType(void.class, Object.class, boolean.class), MethodType.methodType(void.class, clazz, boolean.class)) : null;
+		this.floatSetter = (s != null && type.equals(float.class))? bind(FloatSetter.class, clazz, s, direct, MethodType.methodType(void.class, Object.class, float.class), MethodType.methodType(void.class, clazz, float.class)) : null;
+		this.shortSetter = (s != null && type.equals(short.class))? bind(ShortSetter.class, clazz, s, direct, MethodType.methodType(void.class, Object.class, short.class), MethodType.methodType(void.class, clazz, short.class)) : null;
+	}
+
+	static Accessor of(Class<?> clazz, Field field) {
+		return new Accessor(clazz, field);
+	}
+
+	Object get(Object entity) throws Exception {
+		if(getter == null) throw missingGetter;
+		return getter.get(entity);
+	}
+
+	void set(Object entity, Object value) throws Exception {
+		if(setter == null) throw missingSetter;
+		if(value instanceof Number){
+			// numbers are converted to primitive and boxed numeric or boolean fields, as generated mappers do
+			value = convert(type, value);
+		}
+		setter.set(entity, value);
+	}
+
+	double getDouble(Object entity) throws Exception {
+		if(doubleGetter != null) return doubleGetter.get(entity);
+		return ((Number)get(entity)).doubleValue();
+	}
+
+	void setDouble(Object entity, double value) throws Exception {
+		if(doubleSetter != null) doubleSetter.set(entity, value);
+		else set(entity, value);
+	}
+
+	long getLong(Object entity) throws Exception {
+		if(longGetter != null) return longGetter.get(entity);
+		return ((Number)get(entity)).longValue();
+	}
+
+	void setLong(Object entity, long value) throws Exception {
+		if(longSetter != null) longSetter.set(entity, value);
+		else set(entity, value);
+	}
+
+	int getInt(Object entity) throws Exception {
+		if(intGetter != null) return intGetter.get(entity);
+		return ((Number)get(entity)).intValue();
+	}
+
+	void setInt(Object entity, int value) throws Exception {
+		if(intSetter != null) intSetter.set(entity, value);
+		else set(entity, value);
+	}
+
+	boolean getBoolean(Object entity) throws Exception {
+		if(booleanGetter != null) return booleanGetter.get(entity);
+		return (Boolean)get(entity);
+	}
+
+	void setBoolean(Object entity, boolean value) throws Exception {
+		if(booleanSetter != null) booleanSetter.set(entity, value);
+		else set(entity, value);
+	}
+
+	void setFloat(Object entity, float value) throws Exception {
+		if(floatSetter != null) floatSetter.set(entity, value);
+		else set(entity, value);
+	}
+
+	void setShort(Object entity, short value) throws Exception {
+		if(shortSetter != null) shortSetter.set(entity, value);
+		else set(entity, value);
+	}
+
+	boolean isFk() {
+		return meta != null && !meta.fk().equals(Object.class);
+	}
+
+	/**
+	 * Invokes the load&lt;ClassName&gt;() method of entity, passing the referenced object.
+	 * When entity only declares the {@link Lazy} variant, the referenced object is passed already resolved.
+	 */
+	void load(Object entity, Object value) throws Exception {
+		if(loader == null) {
+			if(lazyLoader != null) {
+				lazyLoader.set(entity, Lazy.of(meta.fk(), get(entity), value));
+				return;
+			}
+			throw new NoSuchMethodException(entity.getClass().getName()+"."+loader(meta.fk().getSimpleName())+"("+meta.fk().getName()+")");
+		}
+		loader.set(entity, value);
+	}
+
+	boolean isLazyLoadable() {
+		return lazyLoader != null;
+	}
+
+	/**
+	 * Invokes the load&lt;ClassName&gt;(Lazy) method of entity, passing an unresolved reference
+	 */
+	void loadLazy(Object entity, Lazy<?> value) {
+		lazyLoader.set(entity, value);
+	}
+
+	/**
+	 * Converts numeric value to the passed primitive or wrapper type, as reflection does with widening conversions
+	 */
+	static Object convert(Class<?> type, Object value) {
+		if(value instanceof Number){
+			final Number n = (Number)value;
+			if(type.equals(long.class) || type.equals(Long.class)){
+				return (value instanceof Long)? value : Long.valueOf(n.longValue());
+			} else if(type.equals(int.class) || type.equals(Integer.class)){
+				return (value instanceof Integer)? value : Integer.valueOf(n.intValue());
+			} else if(type.equals(short.class) || type.equals(Short.class)){
+				return (value instanceof Short)? value : Short.valueOf(n.shortValue());
+			} else if(type.equals(double.class) || type.equals(Double.class)){
+				return (value instanceof Double)? value : Double.valueOf(n.doubleValue());
+			} else if(type.equals(float.class) || type.equals(Float.class)){
+				return (value instanceof Float)? value : Float.valueOf(n.floatValue());
+			} else if(type.equals(boolean.class) || type.equals(Boolean.class)){
+				return Boolean.valueOf(n.intValue() != 0);
+			}
+		}
+		return value;
+	}
+
+	private static boolean isReachable(Class<?> clazz) {
+		if(!Modifier.isPublic(clazz.getModifiers())) return false;
+		try {
+			return Class.forName(clazz.getName(), false, Accessor.class.getClassLoader()) == clazz;
+		} catch (ClassNotFoundException e) {
+			return false;
+		}
+	}
+
+	private static <I> I bind(Class<I> iface, Class<?> clazz, Method method, boolean direct, MethodType samType, MethodType instantiatedType) {
+		try {
+			if(direct){
+				MethodHandle impl = LOOKUP.unreflect(method);
+				CallSite site = LambdaMetafactory.metafactory(LOOKUP, iface.getDeclaredMethods()[0].getName(),
+						MethodType.methodType(iface), samType, impl, instantiatedType);
+				return iface.cast(site.getTarget().invoke());
+			}
+		} catch (Throwable e) {
+			// fall back on plain method handle
+		}
+		try {
+			method.setAccessible(true);
+			return iface.cast(fallback(iface, LOOKUP.unreflect(method).asType(samType)));
+		} catch (IllegalAccessException e) {
+			throw new RuntimeException("Unable to access "+method, e);
+		}
+	}
+
+	private static Object fallback(Class<?> iface, final MethodHandle h) {
+		if(iface == Getter.class){
+			return (Getter)o -> { try { return (Object)h.invokeExact(o); } catch (Throwable t) { throw unchecked(t); } };
+		} else if(iface == Setter.class){
+			return (Setter)(o, v) -> { try { h.invokeExact(o, v); } catch (Throwable t) { throw unchecked(t); } };
+		} else if(iface == DoubleGetter.class){
+			return (DoubleGetter)o -> { try { return (double)h.invokeExact(o); } catch (Throwable t) { throw unchecked(t); } };
+		} else if(iface == DoubleSetter.class){
+			return (DoubleSetter)(o, v) -> { try { h.invokeExact(o, v); } catch (Throwable t) { throw unchecked(t); } };
+		} else if(iface == LongGetter.class){
+			return (LongGetter)o -> { try { return (long)h.invokeExact(o); } catch (Throwable t) { throw unchecked(t); } };
+		} else if(iface == LongSetter.class){
+			return (LongSetter)(o, v) -> { try { h.invokeExact(o, v); } catch (Throwable t) { throw unchecked(t); } };
+		} else if(iface == IntGetter.class){
+			return (IntGetter)o -> { try { return (int)h.invokeExact(o); } catch (Throwable t) { throw unchecked(t); } };
+		} else if(iface == IntSetter.class){
+			return (IntSetter)(o, v) -> { try { h.invokeExact(o, v); } catch (Throwable t) { throw unchecked(t); } };
+		} else if(iface == BooleanGetter.class){
+			return (BooleanGetter)o -> { try { return (boolean)h.invokeExact(o); } catch (Throwable t) { throw unchecked(t); } };
+		} else if(iface == BooleanSetter.class){
+			return (BooleanSetter)(o, v) -> { try { h.invokeExact(o, v); } catch (Throwable t) { throw unchecked(t); } };
+		} else if(iface == FloatSetter.class){
+			return (FloatSetter)(o, v) -> { try { h.invokeExact(o, v); } catch (Throwable t) { throw unchecked(t); } };
+		} else {
+			return (ShortSetter)(o, v) -> { try { h.invokeExact(o, v); } catch (Throwable t) { throw unchecked(t); } };
+		}
+	}
+
+	private static RuntimeException unchecked(Throwable t) {
+		if(t instanceof RuntimeException) return (RuntimeException)t;
+		if(t instanceof Error) throw (Error)t;
+		return new RuntimeException(t);
+	}
+
+	static String getter(String fieldName, boolean isBoolean){
+		char[] cs =fieldName.toCharArray();
+		cs[0] = Character.toUpperCase(cs[0]);
+		return  ((isBoolean)?"is":"get")+ (new String(cs));
+	}
+
+	static String setter(String input){
+		char[] tmp = input.toCharArray();
+		tmp[0] = Character.toUpperCase(tmp[0]);
+		return "set".concat(new String(tmp));
+	}
+
+	static String loader(String input){
+		char[] tmp = input.toCharArray();
+		tmp[0] = Character.toUpperCase(tmp[0]);
+		return "load".concat(new String(tmp));
+	}
+}
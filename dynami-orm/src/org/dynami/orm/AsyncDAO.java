@@ -0,0 +1,261 @@
+/*
+ * Copyright 2017 Alessandro Atria - a.atria@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dynami.orm;
+
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import javax.sql.DataSource;
+
+/**
+ * Asynchronous facade of {@link DAO}, returned by {@link DAO#async()}: each method runs the blocking one on an executor
+ * and completes the returned future with its result or exception.
+ * Default executor runs at most as many calls as the connections of the data source pool: on Java 21 and later
+ * each call gets its own virtual thread, on earlier versions a thread of a bounded pool.
+ *
+ * @author Alessandro Atria - a.atria@gmail.com
+ *
+ */
+public final class AsyncDAO {
+	private final DAO dao;
+	private final AtomicReference<Executor> executor = new AtomicReference<>();
+	private volatile boolean custom;
+
+	AsyncDAO(DAO dao) {
+		this.dao = dao;
+	}
+
+	/**
+	 * Replaces the executor running DAO calls, null restores the default one.
+	 * A default executor replaced is shut down once its calls complete, a custom one is left to the caller.
+	 * @param executor
+	 */
+	public void setExecutor(Executor executor) {
+		final boolean replacedDefault = !custom;
+		this.custom = executor != null;
+		final Executor previous = this.executor.getAndSet(executor);
+		if(replacedDefault){
+			shutdown(previous);
+		}
+	}
+
+	/**
+	 * Shuts down default executor, so that it's sized again on the data source at next call
+	 */
+	void reset() {
+		if(!custom){
+			shutdown(executor.getAndSet(null));
+		}
+	}
+
+	public Executor executor() {
+		Executor current = executor.get();
+		if(current == null){
+			Executor created = defaultExecutor(poolSize(dao.dataSource()));
+			if(executor.compareAndSet(null, created)){
+				current = created;
+			} else {
+				shutdown(created);
+				current = executor();
+			}
+		}
+		return current;
+	}
+
+	public <T> CompletableFuture<T> load(Class<T> clazz, Object... primaryKey) {
+		return submit(() -> dao.load(clazz, primaryKey));
+	}
+
+	public <T> CompletableFuture<T> load(Class<T> clazz, long primaryKey) {
+		return submit(() -> dao.load(clazz, primaryKey));
+	}
+
+	public <T> CompletableFuture<T> get(T entity) {
+		return submit(() -> dao.get(entity));
+	}
+
+	public <T> CompletableFuture<List<T>> select(Criteria<T> criteria) {
+		return submit(() -> dao.select(criteria));
+	}
+
+	public <T> CompletableFuture<T> selectFirst(Criteria<T> criteria) {
+		return submit(() -> dao.selectFirst(criteria));
+	}
+
+	public <T> CompletableFuture<Integer> select(Criteria<T> criteria, Consumer<T> fetch) {
+		return submit(() -> dao.select(criteria, fetch));
+	}
+
+	public <T> CompletableFuture<List<T>> select(Class<T> clazz, String sql, Object... values) {
+		return submit(() -> dao.select(clazz, sql, values));
+	}
+
+	public <T> CompletableFuture<T> selectFirst(Class<T> clazz, String sql, Object... values) {
+		return submit(() -> dao.selectFirst(clazz, sql, values));
+	}
+
+	public <T> CompletableFuture<Boolean> exists(Criteria<T> criteria) {
+		return submit(() -> dao.exists(criteria));
+	}
+
+	public CompletableFuture<Integer> insert(Object entity) {
+		return submit(() -> dao.insert(entity));
+	}
+
+	public <T> CompletableFuture<Integer> update(T entity) {
+		return submit(() -> dao.update(entity));
+	}
+
+	public <T> CompletableFuture<Integer> update(T entity, String... exclude) {
+		return submit(() -> dao.update(entity, exclude));
+	}
+
+	public <T> CompletableFuture<Integer> delete(T entity) {
+		return submit(() -> dao.delete(entity));
+	}
+
+	public <T> CompletableFuture<Integer> delete(Criteria<T> criteria) {
+		return submit(() -> dao.delete(criteria));
+	}
+
+	public CompletableFuture<Boolean> save(Object entity) {
+		return submit(() -> dao.save(entity));
+	}
+
+	public CompletableFuture<int[]> insertAll(Collection<?> entities) {
+		return submit(() -> dao.insertAll(entities));
+	}
+
+	public CompletableFuture<int[]> updateAll(Collection<?> entities) {
+		return submit(() -> dao.updateAll(entities));
+	}
+
+	public CompletableFuture<int[]> deleteAll(Collection<?> entities) {
+		return submit(() -> dao.deleteAll(entities));
+	}
+
+	private <T> CompletableFuture<T> submit(Callable<T> call) {
+		final CompletableFuture<T> future = new CompletableFuture<>();
+		final Runnable task = () -> {
+			if(future.isDone()) return;
+			try {
+				future.complete(call.call());
+			} catch (Throwable e) {
+				future.completeExceptionally(e);
+			}
+		};
+		try {
+			final Executor current = executor();
+			try {
+				current.execute(task);
+			} catch (RejectedExecutionException e) {
+				// default executor shut down by a concurrent reset
+				if(executor.get() == current) throw e;
+				executor().execute(task);
+			}
+		} catch (Throwable e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	/**
+	 * Maximum number of connections of the data source, read from the usual pool getters; twice the processors if unknown
+	 */
+	static int poolSize(DataSource ds) {
+		if(ds instanceof DAO.SingleConnectionDataSource){
+			return 1;
+		}
+		if(ds != null){
+			for(String getter : new String[]{"getMaximumPoolSize", "getMaxTotal", "getMaxPoolSize", "getMaxActive"}){
+				try {
+					Method m = ds.getClass().getMethod(getter);
+					int size = ((Number)m.invoke(ds)).intValue();
+					if(size > 0) return size;
+				} catch (Exception e) {
+					// not this pool
+				}
+			}
+		}
+		return Runtime.getRuntime().availableProcessors() * 2;
+	}
+
+	/**
+	 * Shuts down a default executor, letting calls already submitted complete
+	 */
+	private static void shutdown(Executor executor) {
+		if(executor instanceof Bounded){
+			((Bounded)executor).threads.shutdown();
+		} else if(executor instanceof ExecutorService){
+			((ExecutorService)executor).shutdown();
+		}
+	}
+
+	private static Executor defaultExecutor(int size) {
+		try {
+			Method m = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return new Bounded((ExecutorService)m.invoke(null), size);
+		} catch (Exception e) {
+			// before Java 21
+		}
+		final AtomicInteger threads = new AtomicInteger();
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(size, size, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), r -> {
+			Thread t = new Thread(r, "dynami-async-"+threads.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
+
+	/**
+	 * Runs tasks on virtual threads, at most size at a time: waiting for a permit parks the virtual thread only
+	 */
+	private static final class Bounded implements Executor {
+		private final ExecutorService threads;
+		private final Semaphore permits;
+
+		Bounded(ExecutorService threads, int size) {
+			this.threads = threads;
+			this.permits = new Semaphore(size);
+		}
+
+		@Override
+		public void execute(Runnable task) {
+			threads.execute(() -> {
+				permits.acquireUninterruptibly();
+				try {
+					task.run();
+				} finally {
+					permits.release();
+				}
+			});
+		}
+	}
+}
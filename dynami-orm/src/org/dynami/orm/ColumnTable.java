@@ -0,0 +1,155 @@
+/*
+ * Copyright 2017 Alessandro Atria - a.atria@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dynami.orm;
+
+import java.sql.ResultSet;
+import java.util.Arrays;
+
+/**
+ * Column oriented result of {@link DAO#selectColumns(Criteria, String...)}.
+ * Fields of type double and float are held in double[] columns, long, int and short fields in long[] columns,
+ * any other type in Object[] columns. Arrays are trimmed to the number of rows and returned without copies.
+ *
+ * @author Alessandro Atria - a.atria@gmail.com
+ *
+ */
+public final class ColumnTable {
+	private static final int DOUBLE = 0;
+	private static final int LONG = 1;
+	private static final int OBJECT = 2;
+
+	private final String[] names;
+	private final int[] kinds;
+	private final double[][] doubles;
+	private final long[][] longs;
+	private final Object[][] objects;
+	private int capacity;
+	private int rows;
+
+	ColumnTable(String[] names, Accessor[] fields, int capacity) {
+		this.names = names;
+		this.kinds = new int[fields.length];
+		this.doubles = new double[fields.length][];
+		this.longs = new long[fields.length][];
+		this.objects = new Object[fields.length][];
+		this.capacity = Math.max(capacity, 16);
+		for (int i = 0; i < fields.length; i++) {
+			final Class<?> type = fields[i].type;
+			if(type.equals(double.class) || type.equals(float.class)){
+				kinds[i] = DOUBLE;
+				doubles[i] = new double[this.capacity];
+			} else if(type.equals(long.class) || type.equals(int.class) || type.equals(short.class)){
+				kinds[i] = LONG;
+				longs[i] = new long[this.capacity];
+			} else {
+				kinds[i] = OBJECT;
+				objects[i] = new Object[this.capacity];
+			}
+		}
+	}
+
+	/**
+	 * Appends current row, reading columns in the same order of fields
+	 */
+	void read(ResultSet res) throws Exception {
+		if(rows == capacity){
+			resize(capacity + (capacity >> 1));
+		}
+		for (int i = 0; i < kinds.length; i++) {
+			switch (kinds[i]) {
+			case DOUBLE:
+				doubles[i][rows] = res.getDouble(i+1);
+				break;
+			case LONG:
+				longs[i][rows] = res.getLong(i+1);
+				break;
+			default:
+				objects[i][rows] = res.getObject(i+1);
+				break;
+			}
+		}
+		rows++;
+	}
+
+	void trim() {
+		if(rows < capacity){
+			resize(rows);
+		}
+	}
+
+	private void resize(int size) {
+		for (int i = 0; i < kinds.length; i++) {
+			switch (kinds[i]) {
+			case DOUBLE:
+				doubles[i] = Arrays.copyOf(doubles[i], size);
+				break;
+			case LONG:
+				longs[i] = Arrays.copyOf(longs[i], size);
+				break;
+			default:
+				objects[i] = Arrays.copyOf(objects[i], size);
+				break;
+			}
+		}
+		capacity = size;
+	}
+
+	public int rows() {
+		return rows;
+	}
+
+	public String[] names() {
+		return names.clone();
+	}
+
+	/**
+	 * Values of a double or float field
+	 */
+	public double[] doubles(String field) {
+		return doubles[column(field, DOUBLE)];
+	}
+
+	/**
+	 * Values of a long, int or short field
+	 */
+	public long[] longs(String field) {
+		return longs[column(field, LONG)];
+	}
+
+	/**
+	 * Values of a field of any other type, as returned by the driver
+	 */
+	public Object[] objects(String field) {
+		return objects[column(field, OBJECT)];
+	}
+
+	private int column(String field, int kind) {
+		for (int i = 0; i < names.length; i++) {
+			if(names[i].equals(field)){
+				if(kinds[i] != kind){
+					throw new IllegalArgumentException("Field "+field+" isn't a "+(kind == DOUBLE? "double" : kind == LONG? "long" : "object")+" column");
+				}
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("No column for "+field);
+	}
+
+	@Override
+	public String toString() {
+		return "ColumnTable "+Arrays.toString(names)+" rows="+rows;
+	}
+}
@@ -15,7 +15,6 @@
  */
 package org.dynami.orm;
 
-import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -28,6 +27,10 @@ public class Criteria<T> {
 	protected String[] orderBy = new String[0];
 	protected String[] groupBy = new String[0];
 	protected int rows = -1;
+	protected Object[] after;
+	protected final List<Fetch> fetch = new ArrayList<Fetch>();
+	protected final List<Accessor> lazy = new ArrayList<Accessor>();
+	protected final List<Accessor> select = new ArrayList<Accessor>();
 	
 	public Criteria(Class<T> t){
 		this.clazz = DAOReflect.getEntity(t);
@@ -287,104 +290,75 @@ public class Criteria<T> {
 		this.rows  = rows;
 		return this;
 	}
-}
-
-
-class Where {
-	static final int AND = 0;
-	static final int OR = 1;
-	
-	static final int EQ = 0;
-	static final int GT = 1;
-	static final int EGT = 2;
-	static final int LT = 3;
-	static final int ELT = 4;
-	static final int LIKE = 5;
-	static final int BETWEEN = 6;
-	static final int IN = 7;
-	static final int NEQ = 8;
-	static final int NOT_LIKE = 9;
-	static final int NOT_IN = 10;
-	static final int IS_NULL = 11;
-	static final int IS_NOT_NULL = 12;
-	static final int RIGHT_LIKE = 13;
-	
-	public Where(int AND_OR, Field field, int operator){
-		this.field = field;
-		this.operator = operator;
-	}
-	
-	public Where(int AND_OR, Field field, int operator, Object[] values){
-		this.field = field;
-		this.values = values;
-		this.operator = operator;
-	}
-	
-	Field field;
-	Object[] values;
-	int operator;
-	int and_or;
-	
-	public String toString(){
-		String result=(and_or==AND)?" and ":" or ";
-		switch (operator) {
-		case EQ:
-			result += DAOReflect.getName(field)+" = ? ";
-			break;
-		case NEQ:
-			result += DAOReflect.getName(field)+" <> ? ";
-			break;
-		case GT:
-			result += DAOReflect.getName(field)+" > ? ";
-			break;
-		case EGT:
-			result += DAOReflect.getName(field)+" >= ? ";
-			break;
-		case LT:
-			result += DAOReflect.getName(field)+" < ? ";
-			break;
-		case ELT:
-			result += DAOReflect.getName(field)+" <= ? ";
-			break;
-		case LIKE:
-			result += DAOReflect.getName(field)+" like ? ";
-			break;
-		case RIGHT_LIKE:
-			result += DAOReflect.getName(field)+" like ? ";
-			break;
-		case NOT_LIKE:
-			result += DAOReflect.getName(field)+" not like ? ";
-			break;
-		case IS_NULL:
-			result += DAOReflect.getName(field)+" is NULL ";
-			break;
-		case IS_NOT_NULL:
-			result += DAOReflect.getName(field)+" is NOT NULL ";
-			break;
-		case BETWEEN:
-			result += DAOReflect.getName(field)+" between ? and ? ";
-			break;
-		case IN:
-			result += DAOReflect.getName(field)+" in ( ";
-			for (int i = 0; i < values.length; i++) {
-				if(i != 0)
-					result += " , ";
-				result += " ? ";
+	
+	/**
+	 * Keyset pagination: selects only rows following the passed one in {@link #orderBy(String...)} sequence.
+	 * Order by columns should be indexed and identify rows uniquely (e.g. ending with primary key), null values aren't supported.
+	 * @param values either the last entity of previous page or its values of order by columns, in the same order
+	 */
+	public Criteria<T> after(Object... values){
+		this.after = values;
+		return this;
+	}
+	
+	/**
+	 * Selects only the passed fields, besides primary key, foreign keys fetched or lazy and fields in order by.
+	 * Other fields keep the values given by entity constructor, and references of foreign keys not selected aren't loaded.
+	 * Such partial entities are rejected by {@link DAO#update(Object)} and {@link DAO#save(Object)}, that would overwrite the missing fields.
+	 * @param fields field or column names
+	 * @throws IllegalArgumentException if entity has no such field
+	 */
+	public Criteria<T> select(String... fields){
+		final EntityPlan plan = DAOReflect.plan(clazz);
+		for(String field : fields){
+			this.select.add(SqlUtils.column(plan, field));
+		}
+		return this;
+	}
+	
+	/**
+	 * Loads referenced entities of the passed foreign key fields in the same query, with a left join, 
+	 * instead of a {@link DAO#load(Class, Object...)} for each selected row.
+	 * Referenced entities must have a single primary key.
+	 * @param fields names of fields annotated with {@link DAO.IField#fk()}
+	 */
+	public Criteria<T> fetch(String... fields){
+		for(String field : fields){
+			Accessor fk;
+			try {
+				fk = DAOReflect.accessor(clazz, DAOReflect.getField(clazz, field));
+			} catch (Exception e) {
+				throw new RuntimeException("No attribute for "+field);
+			}
+			if(!fk.isFk()){
+				throw new RuntimeException("Attribute "+field+" is not a foreign key");
 			}
-			result += " ) ";
-			break;
-		case NOT_IN:
-			result += DAOReflect.getName(field)+" not in ( ";
-			for (int i = 0; i < values.length; i++) {
-				if(i != 0)
-					result += " , ";
-				result += " ? ";
+			if(DAOReflect.pkAccessors(DAOReflect.getEntity(fk.meta.fk())).length != 1){
+				throw new RuntimeException("Attribute "+field+" doesn't reference a single primary key");
 			}
-			result += " ) ";
-			break;
-		default:
-			break;
+			this.fetch.add(new Fetch(fk, this.fetch.size()+1));
 		}
-		return result;
+		return this;
+	}
+	
+	/**
+	 * Passes {@link Lazy} references of the passed foreign key fields to entity load&lt;ClassName&gt;(Lazy) methods, 
+	 * as if they were marked with {@link DAO.IField#lazy()}
+	 * @param fields names of fields annotated with {@link DAO.IField#fk()}
+	 */
+	public Criteria<T> lazy(String... fields){
+		for(String field : fields){
+			Accessor fk;
+			try {
+				fk = DAOReflect.accessor(clazz, DAOReflect.getField(clazz, field));
+			} catch (Exception e) {
+				throw new RuntimeException("No attribute for "+field);
+			}
+			if(!fk.isFk()){
+				throw new RuntimeException("Attribute "+field+" is not a foreign key");
+			}
+			this.lazy.add(fk);
+		}
+		return this;
 	}
 }
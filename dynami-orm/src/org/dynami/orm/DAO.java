@@ -0,0 +1,2362 @@
+/*
+ * Copyright 2017 Alessandro Atria - a.atria@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dynami.orm;
+
+import java.io.PrintWriter;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.lang.reflect.Field;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+/**
+ * DAO is a lightweight and basic ORM (Object Relational Mapping) and expose primary methods to handle data in RDBMS.
+ * DAO generates standard SQL, specific instructions can be executed passing sql statements and using DAO only as pojo-sql mapping engine.
+ *  
+ * @author Alessandro Atria - a.atria@gmail.com
+ *
+ */
+public enum DAO {
+	$;
+	
+	//public static final DAO $ = new DAO();
+//	public static final DAO newInstance() {
+//		return new DAO();
+//	}
+//	private DAO() {}
+//	
+	public enum SqlDialect {Sqlite, MySql, PostgreSql};
+	
+	/**
+	 * How entity tables are handled when entities are registered: 
+	 * CREATE runs their table and index scripts, VALIDATE checks that they have a column for each field, NONE assumes they exist
+	 */
+	public enum SchemaMode {CREATE, VALIDATE, NONE};
+	
+	private DataSource ds;
+	private SqlDialect sqlDialect;
+	private Release release;
+	private int batchSize = 1000;
+	private boolean multiRowInsert = false;
+	private int fetchSize = 1000;
+	private volatile SchemaMode schemaMode = SchemaMode.CREATE;
+	private final Map<Class<?>, EntityCache> caches = new ConcurrentHashMap<>();
+	private EntityCache.Factory cacheFactory = DAO::defaultCache;
+	/**
+	 * Registration of each entity class used, holding whether entity is cached once its table is checked
+	 */
+	private static final Map<Class<?>, FutureTask<Boolean>> cached_classes = new ConcurrentHashMap<>();
+	private final AsyncDAO async = new AsyncDAO(this);
+	private final StatementCache statementCache = new StatementCache();
+	private final ThreadLocal<Session> session = new ThreadLocal<>();
+	private final WeakIdentitySet partial = new WeakIdentitySet();
+	
+	public void setup(SqlDialect sqlDialect, DataSource ds) {
+		setup(sqlDialect, ds, c->{});
+	}
+	
+	public void setup(SqlDialect sqlDialect, DataSource ds, Release release) {
+		this.ds = ds;
+		this.sqlDialect = sqlDialect;
+		this.release = release;
+		this.async.reset();
+		this.statementCache.clear();
+		cached_classes.clear();
+	}
+	
+	/**
+	 * Sets how tables of entities registered from now on are handled, CREATE by default
+	 * @param schemaMode
+	 */
+	public void setSchemaMode(SchemaMode schemaMode) {
+		this.schemaMode = schemaMode;
+	}
+	
+	/**
+	 * Registers entities ahead of their first use: builds their metadata and creates or validates their tables, see {@link SchemaMode}.
+	 * Entities are registered concurrently, by as many threads as the connections of the data source pool.
+	 * Entities not registered are registered at first use.
+	 * @param classes
+	 * @throws Exception
+	 */
+	public void register(Class<?>... classes) throws Exception {
+		final int parallelism = Math.min(classes.length, AsyncDAO.poolSize(ds));
+		if(parallelism <= 1){
+			for(Class<?> clazz : classes){
+				checkEntityTable(clazz);
+			}
+			return;
+		}
+		final AtomicInteger threads = new AtomicInteger();
+		final ExecutorService executor = Executors.newFixedThreadPool(parallelism, r -> {
+			Thread t = new Thread(r, "dynami-schema-"+threads.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		try {
+			final List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(classes.length);
+			for(Class<?> clazz : classes){
+				futures.add(executor.submit(() -> checkEntityTable(clazz)));
+			}
+			for(Future<Boolean> future : futures){
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					throw (e.getCause() instanceof Exception)? (Exception)e.getCause() : e;
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+	
+	/**
+	 * Registers all entities of package and its subpackages found in classpath, see {@link #register(Class...)}
+	 * @param packageName
+	 * @return registered entity classes
+	 * @throws Exception
+	 */
+	public List<Class<?>> registerPackage(String packageName) throws Exception {
+		ClassLoader loader = Thread.currentThread().getContextClassLoader();
+		final List<Class<?>> classes = DAOReflect.scan(packageName, (loader != null)? loader : DAO.class.getClassLoader());
+		register(classes.toArray(new Class<?>[classes.size()]));
+		return classes;
+	}
+	
+	/**
+	 * Asynchronous version of DAO methods, running on {@link AsyncDAO#executor()}
+	 */
+	public AsyncDAO async() {
+		return async;
+	}
+	
+	DataSource dataSource() {
+		return ds;
+	}
+	
+	/**
+	 * Replaces the implementation of entity caches, existing caches are discarded.
+	 * Default factory creates a {@link LongKeyEntityCache} for entities with a single long, int or short primary key and a {@link LruEntityCache} otherwise,
+	 * both sized by {@link IEntity#cacheSize()} and {@link IEntity#cacheTtl()}.
+	 * @param cacheFactory
+	 */
+	public void setCacheFactory(EntityCache.Factory cacheFactory) {
+		this.cacheFactory = cacheFactory;
+		caches.clear();
+	}
+	
+	/**
+	 * Hit, miss and eviction counters of the cache of passed entity class
+	 * @param clazz entity class
+	 * @return cache statistics, null if entity class isn't cached
+	 */
+	public EntityCache.Stats cacheStats(Class<?> clazz) {
+		EntityCache cache = caches.get(clazz);
+		return (cache == null)? null : cache.stats();
+	}
+	
+	/**
+	 * Number of rows sent in a single batch, and committed in a single transaction, by bulk methods (default 1000)
+	 * @param batchSize
+	 */
+	public void setBatchSize(int batchSize) {
+		if(batchSize < 1) throw new IllegalArgumentException("Batch size must be positive");
+		this.batchSize = batchSize;
+	}
+	
+	/**
+	 * When enabled {@link #insertAll(Collection)} rewrites each chunk as a single multi-row "insert into ... values (...), (...)" statement
+	 * instead of a JDBC batch. Chunks are further split to respect the dialect bind parameters limit.
+	 * @param multiRowInsert
+	 */
+	public void setMultiRowInsert(boolean multiRowInsert) {
+		this.multiRowInsert = multiRowInsert;
+	}
+	
+	/**
+	 * Number of rows fetched per round trip by streams, 0 leaves the driver default.
+	 * MySql streams always read row by row (fetch size Integer.MIN_VALUE), PostgreSql streams use a cursor, disabling autocommit while open.
+	 * @param fetchSize
+	 */
+	public void setFetchSize(int fetchSize) {
+		if(fetchSize < 0) throw new IllegalArgumentException("Fetch size can't be negative");
+		this.fetchSize = fetchSize;
+	}
+	
+	/**
+	 * Keeps up to size prepared statements per connection, reused by following calls with the same sql on the same connection.
+	 * Useful with {@link SingleConnectionDataSource} or drivers not pooling statements, 0 (the default) disables the cache.
+	 * Statements of a connection are closed when the connection is found closed after its release.
+	 * @param size
+	 */
+	public void setStatementCacheSize(int size) {
+		statementCache.resize(size);
+	}
+	
+	public EntityCache.Stats statementCacheStats() {
+		return statementCache.stats();
+	}
+	
+	/**
+	 * Opens a session pinning a connection to the current thread until closed, see {@link Session}
+	 * @throws IllegalStateException if a session is already open on this thread
+	 */
+	public Session session() throws Exception {
+		return session(-1);
+	}
+	
+	/**
+	 * @param isolation one of Connection.TRANSACTION_* levels
+	 * @see #session()
+	 */
+	public Session session(int isolation) throws Exception {
+		if(ds == null) throw new Exception("Datasource not settled up");
+		if(session.get() != null) throw new IllegalStateException("Session already open on this thread");
+		final Connection conn = ds.getConnection();
+		try {
+			final Session s = new Session(this, conn, isolation);
+			session.set(s);
+			return s;
+		} catch (Exception e) {
+			release(conn);
+			throw e;
+		}
+	}
+	
+	/**
+	 * Runs work in a transaction, committed if work completes and rolled back if it throws.
+	 * When a session is already open on this thread work joins it, leaving commit to its owner.
+	 * @param work
+	 * @throws Exception
+	 */
+	public void inTransaction(Session.Work work) throws Exception {
+		inTransaction(-1, work);
+	}
+	
+	public void inTransaction(int isolation, Session.Work work) throws Exception {
+		callInTransaction(isolation, s -> {
+			work.run(s);
+			return null;
+		});
+	}
+	
+	/**
+	 * Runs transaction returning its result, see {@link #inTransaction(Session.Work)}
+	 */
+	public <T> T callInTransaction(Session.Transaction<T> transaction) throws Exception {
+		return callInTransaction(-1, transaction);
+	}
+	
+	public <T> T callInTransaction(int isolation, Session.Transaction<T> transaction) throws Exception {
+		final Session current = session.get();
+		if(current != null){
+			return transaction.run(current);
+		}
+		try(Session s = session(isolation)){
+			final T result = transaction.run(s);
+			s.commit();
+			return result;
+		}
+	}
+	
+	/**
+	 * Get single instance identified by primary keys
+	 * @param clazz
+	 * @param primaryKey get in the same order as defined in class
+	 * @return valued object
+	 * @throws Exception
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T load(Class<T> clazz, Object... primaryKey) throws Exception {
+		boolean cachable = checkEntityTable(clazz);
+		final EntityCache cache = cachable? cache(clazz) : null;
+		Object key = null;
+		if(cache != null){
+			key = DAOReflect.plan(clazz).key(primaryKey);
+			T res = (T)cache.get(key);
+			if(res != null){
+				return res;
+			}
+		}
+		return fetch(clazz, cache, key, primaryKey);
+	}
+	
+	/**
+	 * Get single instance identified by a single long, int or short primary key.
+	 * Entities cached by an {@link EntityCache.OfLong}, the default for such keys, are looked up without boxing or allocations.
+	 * @param clazz
+	 * @param primaryKey
+	 * @return valued object
+	 * @throws Exception
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T load(Class<T> clazz, long primaryKey) throws Exception {
+		boolean cachable = checkEntityTable(clazz);
+		if(cachable){
+			final EntityCache cache = cache(clazz);
+			if(cache instanceof EntityCache.OfLong){
+				T res = (T)((EntityCache.OfLong)cache).get(primaryKey);
+				if(res != null){
+					return res;
+				}
+				final Object[] values = new Object[]{primaryKey};
+				return fetch(clazz, cache, DAOReflect.plan(clazz).key(values), values);
+			}
+		}
+		return load(clazz, new Object[]{primaryKey});
+	}
+	
+	@SuppressWarnings("unchecked")
+	private <T> T fetch(Class<T> clazz, EntityCache cache, Object key, Object[] primaryKey) throws Exception {
+		try{
+			Object entity = DAOReflect.plan(clazz).newInstance();
+			Accessor[] pk = DAOReflect.pkAccessors(clazz);
+			for (int i = 0; i < pk.length; i++) {
+				pk[i].set(entity, primaryKey[i]);
+			}
+			Object res = get(entity);
+			if(cache != null && res != null){
+				cache.put(key, res);
+			}
+			return (T) res;
+		}catch(Exception e){
+			System.err.println("Error on"+ clazz.getName());
+			e.printStackTrace();
+			throw e;
+		}
+	}
+	
+	
+	public <T> T get(T entity) throws Exception {
+		checkEntityTable(entity.getClass());
+		PreparedStatement pstmt = null;
+		ResultSet res = null;
+		Connection conn = connection();
+		try {
+			pstmt = SqlUtils.sqlSelect(conn, entity);
+			
+			res = pstmt.executeQuery();
+			EntityPlan plan = DAOReflect.plan(entity.getClass());
+			
+			if(res.next()){
+				hydrate(null, plan, plan.mapper(plan.select.sql, Collections.<Fetch>emptyList(), res), entity, res, null);
+				partial.remove(entity);
+				return entity;
+			} else {
+				return null;
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+			DAOReflect.logObject(entity);
+			//log.error("get", e);
+			throw e;
+		} finally {
+			release(conn, pstmt, res);
+		}
+	}
+	
+	
+	/**
+	 * Update entity passed as parameter
+	 * @param entity uses the primary field values in where condition to identify records
+	 * @return the number of records updated 
+	 * @throws Exception
+	 */
+	public <T> int update(T entity) throws Exception {
+		checkComplete(entity);
+		boolean cachable = checkEntityTable(entity.getClass());
+		if(cachable){
+			cache(entity.getClass()).remove(DAOReflect.plan(entity.getClass()).key(entity));
+		}
+		Connection conn = connection();
+		PreparedStatement pstmt = null;
+		try{
+			pstmt = SqlUtils.sqlUpdate(conn, entity);
+			return pstmt.executeUpdate();
+		} catch (Exception e) {
+			DAOReflect.logObject(entity);
+			//log.error("update", e);
+			throw e;
+		} finally {
+			release(conn, pstmt, null);
+		}
+	}
+	
+	/**
+	 * 
+	 * @param entity update entity passed as parameter excluding defined fields
+	 * @param exclude list of fields to be excluded
+	 * @return the number of records updated
+	 * @throws Exception
+	 */
+	public <T> int update(T entity, String...exclude) throws Exception {
+		checkComplete(entity);
+		boolean cachable = checkEntityTable(entity.getClass());
+		if(cachable){
+			cache(entity.getClass()).remove(DAOReflect.plan(entity.getClass()).key(entity));
+		}
+		Connection conn = connection();
+		PreparedStatement pstmt = null;
+		try{
+			pstmt = SqlUtils.sqlUpdate(conn, entity, exclude);
+			return pstmt.executeUpdate();
+		} catch (Exception e) {
+			DAOReflect.logObject(entity);
+			//log.error("update", e);
+			throw e;
+		} finally {
+			release(conn, pstmt, null);
+		}
+	}
+	
+	/**
+	 * Deletes passed entity defined by valued primary keys
+	 * @param entity primary keys field have to be valued to avoid undesired deletions
+	 * @return the number of records deleted
+	 * @throws Exception
+	 */
+	public <T> int delete(T entity) throws Exception {
+		boolean cachable = checkEntityTable(entity.getClass());
+		if(cachable){
+			cache(entity.getClass()).remove(DAOReflect.plan(entity.getClass()).key(entity));
+		}
+		Connection conn = connection();
+		PreparedStatement pstmt = null;
+		try{
+			pstmt = SqlUtils.sqlDelete(conn, entity);
+			return pstmt.executeUpdate();
+		} catch (Exception e) {
+			DAOReflect.logObject(entity);
+			//log.error("update", e);
+			throw e;
+		} finally {
+			release(conn, pstmt, null);
+		}
+	}
+	
+	/**
+	 * Inserts entity passed as parameter. The value generated for a serial field is written back to the entity.
+	 * @param entity
+	 * @return the number of records inserted
+	 * @throws Exception
+	 */
+	public int insert(Object entity) throws Exception {
+		if(entity == null) return -1;
+		boolean cachable = checkEntityTable(entity.getClass());
+		PreparedStatement pstmt = null;
+		Connection conn = connection();
+		try{
+			pstmt = SqlUtils.sqlInsert(conn, entity, sqlDialect);
+			int result = pstmt.executeUpdate();
+			EntityPlan plan = DAOReflect.plan(entity.getClass());
+			if(plan.serial != null){
+				SqlUtils.generatedKeys(pstmt, plan, entity);
+			}
+			if(cachable){
+				cache(entity.getClass()).put(plan.key(entity), entity);
+			}
+			return result;
+		} catch (Exception e) {
+			DAOReflect.logObject(entity);
+			throw e;
+		} finally {
+			release(conn, pstmt, null);
+		}
+	}
+	
+	/**
+	 * Inserts all entities reusing one connection and one statement. 
+	 * Rows are sent in batches of {@link #setBatchSize(int)} entities, each batch is committed in its own transaction.
+	 * Values generated for serial fields are written back to the entities.
+	 * @param entities
+	 * @return the number of records inserted by each batch
+	 * @throws Exception
+	 */
+	public int[] insertAll(Collection<?> entities) throws Exception {
+		List<int[]> counts = new ArrayList<>();
+		for(Map.Entry<Class<?>, List<Object>> e : byClass(entities).entrySet()){
+			boolean cachable = checkEntityTable(e.getKey());
+			final EntityPlan plan = DAOReflect.plan(e.getKey());
+			if(multiRowInsert && plan.insertFields.length > 0 && (plan.serial == null || batchGeneratedKeys())){
+				counts.add(executeMultiRowInsert(plan, e.getValue(), plan::insert));
+			} else {
+				counts.add(executeBatch(plan.insert.sql, e.getValue(), plan.insert::bind, plan.serial != null?plan:null));
+			}
+			if(cachable) cacheAll(e.getValue());
+		}
+		return concat(counts);
+	}
+	
+	/**
+	 * Updates all entities reusing one connection and one statement, see {@link #insertAll(Collection)}
+	 * @param entities
+	 * @return the number of records updated by each batch
+	 * @throws Exception
+	 */
+	public int[] updateAll(Collection<?> entities) throws Exception {
+		checkComplete(entities);
+		List<int[]> counts = new ArrayList<>();
+		for(Map.Entry<Class<?>, List<Object>> e : byClass(entities).entrySet()){
+			boolean cachable = checkEntityTable(e.getKey());
+			final EntityPlan plan = DAOReflect.plan(e.getKey());
+			if(cachable) uncache(e.getValue());
+			counts.add(executeBatch(plan.update.sql, e.getValue(), plan.update::bind, null));
+		}
+		return concat(counts);
+	}
+	
+	/**
+	 * Deletes all entities, identified by their primary keys, reusing one connection and one statement, see {@link #insertAll(Collection)}
+	 * @param entities
+	 * @return the number of records deleted by each batch
+	 * @throws Exception
+	 */
+	public int[] deleteAll(Collection<?> entities) throws Exception {
+		List<int[]> counts = new ArrayList<>();
+		for(Map.Entry<Class<?>, List<Object>> e : byClass(entities).entrySet()){
+			boolean cachable = checkEntityTable(e.getKey());
+			final EntityPlan plan = DAOReflect.plan(e.getKey());
+			if(cachable) uncache(e.getValue());
+			counts.add(executeBatch(plan.delete.sql, e.getValue(), plan.delete::bind, null));
+		}
+		return concat(counts);
+	}
+	
+	/**
+	 * Deletes all records identified by primary keys, see {@link #insertAll(Collection)}
+	 * @param clazz
+	 * @param primaryKeys each element is the primary key value, or an Object[] with values in the same order as defined in class
+	 * @return the number of records deleted by each batch
+	 * @throws Exception
+	 */
+	public <T> int[] deleteAll(Class<T> clazz, Collection<?> primaryKeys) throws Exception {
+		boolean cachable = checkEntityTable(clazz);
+		final EntityPlan plan = DAOReflect.plan(clazz);
+		final List<Object> keys = new ArrayList<>(primaryKeys);
+		if(cachable){
+			final EntityCache cache = cache(clazz);
+			for(Object key : keys){
+				cache.remove(plan.key( (key instanceof Object[])?(Object[])key:new Object[]{key} ));
+			}
+		}
+		return executeBatch(plan.delete.sql, keys, (pstmt, key)->{
+			if(key instanceof Object[]){
+				Object[] values = (Object[])key;
+				for (int i = 0; i < values.length; i++) {
+					pstmt.setObject(i+1, values[i]);
+				}
+			} else {
+				pstmt.setObject(1, key);
+			}
+		}, null);
+	}
+	
+	/**
+	 * Executes statement once per item, in chunks of batchSize items each committed in its own transaction
+	 * @param generated plan of inserted entities whose serial field has to be valued, null otherwise
+	 */
+	private int[] executeBatch(String sql, List<?> items, Binder binder, EntityPlan generated) throws Exception {
+		final int chunk = batchSize;
+		final int[] counts = new int[(items.size() + chunk - 1) / chunk];
+		if(counts.length == 0) return counts;
+		final boolean rowByRow = generated != null && !batchGeneratedKeys();
+		Connection conn = connection();
+		PreparedStatement pstmt = null;
+		boolean autoCommit = conn.getAutoCommit();
+		Exception failure = null;
+		try {
+			if(autoCommit) conn.setAutoCommit(false);
+			pstmt = (generated == null)? acquire(conn, sql) : SqlUtils.prepareInsert(conn, sql, generated, sqlDialect);
+			for (int c = 0; c < counts.length; c++) {
+				final int from = c * chunk, to = Math.min(items.size(), from + chunk);
+				try {
+					if(rowByRow){
+						for (int i = from; i < to; i++) {
+							binder.bind(pstmt, items.get(i));
+							counts[c] += pstmt.executeUpdate();
+							SqlUtils.generatedKeys(pstmt, generated, items, i, i+1);
+						}
+					} else {
+						for (int i = from; i < to; i++) {
+							binder.bind(pstmt, items.get(i));
+							pstmt.addBatch();
+						}
+						counts[c] = sum(pstmt.executeBatch());
+						if(generated != null){
+							SqlUtils.generatedKeys(pstmt, generated, items, from, to);
+						}
+					}
+					if(autoCommit) conn.commit();
+				} catch (Exception e) {
+					if(autoCommit) conn.rollback();
+					throw e;
+				}
+			}
+			return counts;
+		} catch (Exception e) {
+			failure = e;
+			throw e;
+		} finally {
+			statementCache.release(conn, pstmt);
+			restoreAutoCommit(conn, autoCommit, failure);
+		}
+	}
+	
+	/**
+	 * Restores autocommit and releases connection, whatever happens. 
+	 * An error restoring autocommit is added to the failure of the batch, if any, rather than replacing it.
+	 */
+	private void restoreAutoCommit(Connection conn, boolean autoCommit, Exception failure) throws SQLException {
+		try {
+			if(autoCommit) conn.setAutoCommit(true);
+		} catch (SQLException e) {
+			if(failure == null) throw e;
+			failure.addSuppressed(e);
+		} finally {
+			release(conn);
+		}
+	}
+	
+	/**
+	 * Sqlite driver reports only the last generated key of a batch or of a multi-row insert
+	 */
+	private boolean batchGeneratedKeys() {
+		return sqlDialect != SqlDialect.Sqlite;
+	}
+	
+	/**
+	 * @param sql statement text inserting the passed number of rows
+	 */
+	private int[] executeMultiRowInsert(EntityPlan plan, List<?> items, IntFunction<String> sql) throws Exception {
+		final int chunk = Math.max(1, Math.min(batchSize, maxBindParameters() / plan.insertFields.length));
+		final int[] counts = new int[(items.size() + chunk - 1) / chunk];
+		if(counts.length == 0) return counts;
+		Connection conn = connection();
+		PreparedStatement pstmt = null;
+		int prepared = 0;
+		boolean autoCommit = conn.getAutoCommit();
+		Exception failure = null;
+		try {
+			if(autoCommit) conn.setAutoCommit(false);
+			for (int c = 0; c < counts.length; c++) {
+				final int from = c * chunk, to = Math.min(items.size(), from + chunk);
+				try {
+					if(prepared != to - from){
+						statementCache.release(conn, pstmt);
+						prepared = to - from;
+						pstmt = SqlUtils.prepareInsert(conn, sql.apply(prepared), plan, sqlDialect);
+					}
+					int idx = 1;
+					for (int i = from; i < to; i++) {
+						idx = plan.insert.bind(pstmt, items.get(i), idx);
+					}
+					counts[c] = pstmt.executeUpdate();
+					if(plan.serial != null){
+						SqlUtils.generatedKeys(pstmt, plan, items, from, to);
+					}
+					if(autoCommit) conn.commit();
+				} catch (Exception e) {
+					if(autoCommit) conn.rollback();
+					throw e;
+				}
+			}
+			return counts;
+		} catch (Exception e) {
+			failure = e;
+			throw e;
+		} finally {
+			statementCache.release(conn, pstmt);
+			restoreAutoCommit(conn, autoCommit, failure);
+		}
+	}
+	
+	private int maxBindParameters() {
+		switch (sqlDialect) {
+		case Sqlite:
+			return 999;
+		case PostgreSql:
+			return 32767;
+		default:
+			return 65535;
+		}
+	}
+	
+	private void uncache(List<?> entities) throws Exception {
+		for(Object entity : entities){
+			cache(entity.getClass()).remove(DAOReflect.plan(entity.getClass()).key(entity));
+		}
+	}
+	
+	private void cacheAll(List<?> entities) throws Exception {
+		for(Object entity : entities){
+			cache(entity.getClass()).put(DAOReflect.plan(entity.getClass()).key(entity), entity);
+		}
+	}
+	
+	private static EntityCache defaultCache(Class<?> clazz, IEntity config) {
+		Accessor[] pk = DAOReflect.plan(clazz).pk;
+		if(pk.length == 1 && (pk[0].type.equals(long.class) || pk[0].type.equals(int.class) || pk[0].type.equals(short.class))){
+			return new LongKeyEntityCache(config.cacheSize(), config.cacheTtl());
+		}
+		return new LruEntityCache(config.cacheSize(), config.cacheTtl());
+	}
+	
+	private EntityCache cache(Class<?> clazz) {
+		EntityCache cache = caches.get(clazz);
+		if(cache == null){
+			cache = caches.computeIfAbsent(clazz, c -> cacheFactory.create(c, c.getAnnotation(IEntity.class)));
+		}
+		return cache;
+	}
+	
+	private static Map<Class<?>, List<Object>> byClass(Collection<?> entities) {
+		Map<Class<?>, List<Object>> out = new LinkedHashMap<>();
+		for(Object entity : entities){
+			if(entity == null) continue;
+			List<Object> list = out.get(entity.getClass());
+			if(list == null){
+				list = new ArrayList<>();
+				out.put(entity.getClass(), list);
+			}
+			list.add(entity);
+		}
+		return out;
+	}
+	
+	private static int sum(int[] counts) {
+		int total = 0;
+		for (int i = 0; i < counts.length; i++) {
+			if(counts[i] > 0) {
+				total += counts[i];
+			} else if(counts[i] == Statement.SUCCESS_NO_INFO) {
+				total++;
+			}
+		}
+		return total;
+	}
+	
+	private static int[] concat(List<int[]> counts) {
+		if(counts.size() == 1) return counts.get(0);
+		int size = 0;
+		for(int[] c : counts) size += c.length;
+		int[] out = new int[size];
+		int idx = 0;
+		for(int[] c : counts){
+			System.arraycopy(c, 0, out, idx, c.length);
+			idx += c.length;
+		}
+		return out;
+	}
+	
+	/**
+	 * Loads pending {@link Lazy} references with an "in" query per referenced entity class, instead of a query per reference.
+	 * Cached entities are taken from cache, references to missing entities are resolved to null.
+	 * @param references
+	 * @return the number of references resolved
+	 * @throws Exception
+	 */
+	public int resolve(Collection<? extends Lazy<?>> references) throws Exception {
+		final Map<Class<?>, Map<Object, List<Lazy<?>>>> pending = new LinkedHashMap<>();
+		int resolved = 0;
+		for(Lazy<?> ref : references){
+			if(ref == null || ref.isResolved()) continue;
+			if(ref.key() == null){
+				ref.resolve(null);
+				resolved++;
+				continue;
+			}
+			final Class<?> clazz = DAOReflect.getEntity(ref.type());
+			final EntityCache cache = checkEntityTable(clazz)? cache(clazz) : null;
+			final Object key = DAOReflect.plan(clazz).key(new Object[]{ref.key()});
+			final Object cached = (cache == null)? null : cache.get(key);
+			if(cached != null){
+				ref.resolve(cached);
+				resolved++;
+			} else {
+				pending.computeIfAbsent(clazz, c -> new LinkedHashMap<>()).computeIfAbsent(key, k -> new ArrayList<>()).add(ref);
+			}
+		}
+		for(Map.Entry<Class<?>, Map<Object, List<Lazy<?>>>> e : pending.entrySet()){
+			final EntityPlan plan = DAOReflect.plan(e.getKey());
+			final EntityCache cache = checkEntityTable(plan.clazz)? cache(plan.clazz) : null;
+			final Map<Object, List<Lazy<?>>> refs = e.getValue();
+			final Object[] keys = refs.keySet().toArray();
+			final int chunk = maxBindParameters();
+			for (int from = 0; from < keys.length; from += chunk) {
+				final Object[] values = Arrays.copyOfRange(keys, from, Math.min(keys.length, from + chunk));
+				for(Object entity : select(new Criteria<>(plan.clazz).andIn(plan.pk[0].field.getName(), values))){
+					final Object key = plan.key(entity);
+					final List<Lazy<?>> found = refs.remove(key);
+					if(found != null){
+						for(Lazy<?> ref : found) ref.resolve(entity);
+						resolved += found.size();
+					}
+					if(cache != null){
+						cache.put(key, entity);
+					}
+				}
+			}
+			for(List<Lazy<?>> missing : refs.values()){
+				for(Lazy<?> ref : missing) ref.resolve(null);
+				resolved += missing.size();
+			}
+		}
+		return resolved;
+	}
+	
+	public <T> int delete(Criteria<T> criteria) throws Exception {
+		boolean cachable = checkEntityTable(criteria.clazz);
+		if(cachable){
+			cache(criteria.clazz).clear();
+		}
+		int result = 0;
+		Connection conn = connection();
+		PreparedStatement pstmt = null;
+		try {
+			pstmt = SqlUtils.sqlDeleteByCriteria(conn, criteria);
+			result = pstmt.executeUpdate();
+			return result;
+		} catch (Exception e) {
+			DAOReflect.logObject(criteria);
+			throw e;
+		} finally {
+			release(conn, pstmt, null);
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	public <T> List<T> select(Criteria<T> criteria) throws Exception {
+		checkEntityTables(criteria);
+		PreparedStatement pstmt = null;
+		ResultSet res = null;
+		List<T> result = new ArrayList<T>();
+		List<Reference> references = new ArrayList<Reference>();
+		Connection conn = connection();
+		try {
+			List<Object> values = new ArrayList<Object>();
+			String sql = SqlUtils.sqlSelectByCriteria(criteria, sqlDialect, values);
+			pstmt = SqlUtils.prepare(conn, sql, values);
+			res = pstmt.executeQuery();
+			EntityPlan plan = DAOReflect.plan(criteria.clazz);
+			RowMapper mapper = plan.mapper(sql, criteria.fetch, res);
+			Object obj = null;
+			while(res.next()){
+				obj = instance(plan, criteria);
+				hydrate(criteria, plan, mapper, obj, res, references);
+				result.add((T)obj);
+			}
+		} catch (Exception e) {
+			DAOReflect.logObject(criteria);
+			throw e;
+		} finally {
+			release(conn, pstmt, res);
+		}
+		load(references);
+		return result;
+	}
+	
+	@SuppressWarnings("unchecked")
+	public <T>  T selectFirst(Criteria<T> criteria) throws Exception {
+		checkEntityTables(criteria);
+		PreparedStatement pstmt = null;
+		ResultSet res = null;
+		Connection conn = connection();
+//		List<T> result = new ArrayList<T>();
+		List<Reference> references = new ArrayList<Reference>();
+		Object obj = null;
+		try {
+			List<Object> values = new ArrayList<Object>();
+			String sql = SqlUtils.sqlSelectByCriteria(criteria, sqlDialect, values);
+			pstmt = SqlUtils.prepare(conn, sql, values);
+			res = pstmt.executeQuery();
+			EntityPlan plan = DAOReflect.plan(criteria.clazz);
+			RowMapper mapper = plan.mapper(sql, criteria.fetch, res);
+			if(res.next()){
+				obj = instance(plan, criteria);
+				hydrate(criteria, plan, mapper, obj, res, references);
+				//result.add((T)obj);
+			}
+		} catch (Exception e) {
+			DAOReflect.logObject(criteria);
+			throw e;
+		} finally {
+			release(conn, pstmt, res);
+		}
+		load(references);
+		return (T)obj;
+	}
+	
+	/**
+	 * Flyweight scan of a native query: a single entity instance is valued with each row and passed to consumer, 
+	 * so rows are mapped without allocations beyond the ones of the JDBC driver.
+	 * Consumer must copy the values it needs to keep, since the instance is overwritten by the next row.
+	 * @param fetch consumer of rows
+	 * @param clazz
+	 * @param sql
+	 * @param values
+	 * @return the number of rows processed
+	 * @throws Exception
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> int select(Consumer<T> fetch, Class<T> clazz, String sql, Object... values) throws Exception {
+		if(ds == null) throw new Exception("Datasource not settled up");
+		Connection conn = connection();
+		PreparedStatement pstmt = null;
+		ResultSet res = null;
+		int processed = 0;
+		try {
+			pstmt = acquire(conn, sql);
+			int idx = 1;
+			for(Object v:values){
+				pstmt.setObject(idx++, v);
+			}
+			
+			res = pstmt.executeQuery();
+			EntityPlan plan = DAOReflect.plan(clazz);
+			RowMapper mapper = plan.mapper(sql, Collections.<Fetch>emptyList(), res);
+			T obj = (T)plan.newInstance();
+			while(res.next()){
+				mapper.map(obj, res);
+				fetch.accept(obj);
+				processed++;
+			}
+			return processed;
+		} catch (Exception e) {
+			//DAOUtils.logObject(criteria);
+			throw e;
+		} finally {
+			release(conn, pstmt, res);
+		}
+	}
+	
+	/**
+	 * Flyweight scan of entities selected by criteria, see {@link #select(Consumer, Class, String, Object...)}.
+	 * Foreign keys are passed to entity only when requested with {@link Criteria#fetch(String...)} or {@link Criteria#lazy(String...)}.
+	 * @param criteria
+	 * @param fetch consumer of rows
+	 * @return the number of rows processed
+	 * @throws Exception
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> int select(Criteria<T> criteria, Consumer<T> fetch) throws Exception {
+		checkEntityTables(criteria);
+		Connection conn = connection();
+		PreparedStatement pstmt = null;
+		ResultSet res = null;
+		try {
+			List<Object> values = new ArrayList<Object>();
+			String sql = SqlUtils.sqlSelectByCriteria(criteria, sqlDialect, values);
+			pstmt = SqlUtils.prepare(conn, sql, values);
+			res = pstmt.executeQuery();
+			EntityPlan plan = DAOReflect.plan(criteria.clazz);
+			RowMapper mapper = plan.mapper(sql, criteria.fetch, res);
+			Object obj = instance(plan, criteria);
+			int processedRows = 0;
+			while(res.next()){
+				hydrate(criteria, plan, mapper, obj, res, false);
+				fetch.accept((T)obj);
+				processedRows++;
+			}
+			return processedRows;
+		} catch (Exception e) {
+			DAOReflect.logObject(criteria);
+			throw e;
+		} finally {
+			release(conn, pstmt, res);
+		}
+	}
+	
+	
+	
+	/**
+	 * Walks entities matching criteria page by page with keyset pagination (see {@link Criteria#after(Object...)}),
+	 * so that each page costs the same regardless of its position. Criteria must define order by columns
+	 * and its limit and after values are updated while iterating.
+	 * @param criteria
+	 * @param pageSize maximum number of entities per page
+	 * @return pages, starting from the criteria after values, if any
+	 */
+	public <T> Iterable<List<T>> pages(final Criteria<T> criteria, final int pageSize) {
+		if(pageSize < 1) throw new IllegalArgumentException("Page size must be positive");
+		final Object[] start = criteria.after;
+		return () -> new Iterator<List<T>>() {
+			private List<T> page;
+			private boolean last;
+			{
+				criteria.limit(pageSize).after(start);
+			}
+			
+			@Override
+			public boolean hasNext() {
+				if(page == null && !last){
+					try {
+						page = select(criteria);
+					} catch (Exception e) {
+						throw new RuntimeException(e);
+					}
+					if(page.size() < pageSize){
+						last = true;
+					} else {
+						criteria.after(page.get(page.size()-1));
+					}
+					if(page.isEmpty()){
+						page = null;
+					}
+				}
+				return page != null;
+			}
+			
+			@Override
+			public List<T> next() {
+				if(!hasNext()) throw new NoSuchElementException();
+				List<T> out = page;
+				page = null;
+				return out;
+			}
+		};
+	}
+	
+	/**
+	 * Lazily pulled stream of entities selected by criteria, backed by an open result set.
+	 * The statement and the connection are held until the stream is exhausted or closed, so use it within a try-with-resources block.
+	 * Foreign keys are passed to entities only when requested with {@link Criteria#fetch(String...)} or {@link Criteria#lazy(String...)}:
+	 * loading them while the result set is open would need the same connection, which is busy streaming on MySql.
+	 * @param criteria
+	 * @return
+	 * @throws Exception
+	 */
+	public <T> Stream<T> stream(Criteria<T> criteria) throws Exception {
+		checkEntityTables(criteria);
+		List<Object> values = new ArrayList<Object>();
+		String sql = SqlUtils.sqlSelectByCriteria(criteria, sqlDialect, values);
+		return stream(DAOReflect.plan(criteria.clazz), criteria, sql, values);
+	}
+	
+	/**
+	 * Lazily pulled stream of entities mapped from a native query, see {@link #stream(Criteria)}
+	 * @param clazz
+	 * @param sql
+	 * @param values
+	 * @return
+	 * @throws Exception
+	 */
+	public <T> Stream<T> stream(Class<T> clazz, String sql, Object... values) throws Exception {
+		List<Object> params = new ArrayList<Object>(values.length);
+		Collections.addAll(params, values);
+		return stream(DAOReflect.plan(clazz), null, sql, params);
+	}
+	
+	private <T> Stream<T> stream(EntityPlan plan, Criteria<?> criteria, String sql, List<Object> values) throws Exception {
+		final ResultSetSpliterator<T> rows = open(plan, criteria, sql, values);
+		return StreamSupport.stream(rows, false).onClose(rows::close);
+	}
+	
+	/**
+	 * Executes query returning its rows as a spliterator, which holds statement and connection until exhausted or closed
+	 */
+	@SuppressWarnings("unchecked")
+	private <T> ResultSetSpliterator<T> open(EntityPlan plan, Criteria<?> criteria, String sql, List<Object> values) throws Exception {
+		if(ds == null) throw new Exception("Datasource not settled up");
+		final Connection conn = connection();
+		final boolean cursor = sqlDialect == SqlDialect.PostgreSql && fetchSize > 0 && conn.getAutoCommit();
+		PreparedStatement pstmt = null;
+		ResultSet res = null;
+		try {
+			if(cursor){
+				conn.setAutoCommit(false);
+			}
+			pstmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			if(sqlDialect == SqlDialect.MySql){
+				pstmt.setFetchSize(Integer.MIN_VALUE);
+			} else if(fetchSize > 0){
+				pstmt.setFetchSize(fetchSize);
+			}
+			int idx = 1;
+			for(Object v : values){
+				pstmt.setObject(idx++, v);
+			}
+			res = pstmt.executeQuery();
+			final RowMapper mapper = plan.mapper(sql, (criteria == null)? Collections.<Fetch>emptyList() : criteria.fetch, res);
+			final PreparedStatement statement = pstmt;
+			final ResultSet result = res;
+			return new ResultSetSpliterator<T>(res, r -> {
+				Object obj = instance(plan, criteria);
+				if(criteria == null){
+					mapper.map(obj, r);
+				} else {
+					hydrate(criteria, plan, mapper, obj, r, false);
+				}
+				return (T)obj;
+			}, () -> closeStream(conn, statement, result, cursor));
+		} catch (Exception e) {
+			closeStream(conn, pstmt, res, cursor);
+			throw e;
+		}
+	}
+	
+	private void closeStream(Connection conn, PreparedStatement pstmt, ResultSet res, boolean cursor) {
+		SqlUtils.closeAll(pstmt, res);
+		try {
+			if(cursor){
+				conn.setAutoCommit(true);
+			}
+		} catch (SQLException e) {
+			e.printStackTrace();
+		} finally {
+			release(conn);
+		}
+	}
+	
+	/**
+	 * Selects the passed fields of entities matching criteria into primitive column arrays, without valuing entities.
+	 * Foreign keys fetched by criteria are ignored.
+	 * @param criteria
+	 * @param fields names of selected fields
+	 * @return
+	 * @throws Exception
+	 */
+	public <T> ColumnTable selectColumns(Criteria<T> criteria, String... fields) throws Exception {
+		checkEntityTable(criteria.clazz);
+		final Accessor[] columns = new Accessor[fields.length];
+		for (int i = 0; i < fields.length; i++) {
+			Field field = DAOReflect.getField(criteria.clazz, fields[i]);
+			if(field == null){
+				throw new Exception("No attribute for "+fields[i]);
+			}
+			columns[i] = DAOReflect.accessor(criteria.clazz, field);
+		}
+		Connection conn = connection();
+		PreparedStatement pstmt = null;
+		ResultSet res = null;
+		try {
+			List<Object> values = new ArrayList<Object>();
+			pstmt = SqlUtils.prepare(conn, SqlUtils.sqlSelectByCriteria(criteria, columns, null, sqlDialect, values), values);
+			if(fetchSize > 0 && sqlDialect != SqlDialect.MySql){
+				pstmt.setFetchSize(fetchSize);
+			}
+			res = pstmt.executeQuery();
+			// limit is an upper bound of rows, not an estimate: arrays start small and grow
+			ColumnTable table = new ColumnTable(fields.clone(), columns, (criteria.rows > 0)? Math.min(criteria.rows, 1024) : 1024);
+			while(res.next()){
+				table.read(res);
+			}
+			table.trim();
+			return table;
+		} catch (Exception e) {
+			DAOReflect.logObject(criteria);
+			throw e;
+		} finally {
+			release(conn, pstmt, res);
+		}
+	}
+	
+	/**
+	 * Flyweight scan of entities matching criteria run concurrently on separate connections, see {@link #select(Criteria, Consumer)}.
+	 * The range between minimum and maximum primary key is split into key ranges, each one read by its own query.
+	 * Consumer is called concurrently, an instance per worker; order by and limit apply to each range.
+	 * @param criteria
+	 * @param fetch thread safe consumer of rows
+	 * @param parallelism number of concurrent queries, should not exceed the connections available in the pool
+	 * @return the number of rows processed
+	 * @throws Exception
+	 */
+	public <T> int parallelScan(Criteria<T> criteria, Consumer<T> fetch, int parallelism) throws Exception {
+		return parallelScan(criteria, null, fetch, parallelism);
+	}
+	
+	/**
+	 * Parallel scan splitting the range of the passed field, see {@link #parallelScan(Criteria, Consumer, int)}
+	 * @param field name of an indexed long, int or short field; null for the primary key
+	 */
+	public <T> int parallelScan(Criteria<T> criteria, String field, Consumer<T> fetch, int parallelism) throws Exception {
+		if(parallelism < 1) throw new IllegalArgumentException("Parallelism must be positive");
+		checkEntityTables(criteria);
+		final EntityPlan plan = DAOReflect.plan(criteria.clazz);
+		final Accessor column = splitColumn(plan, field);
+		// more ranges than workers, so that a skewed key distribution doesn't leave workers idle
+		final long[][] ranges = ranges(criteria, column, parallelism * 4);
+		if(ranges.length == 0){
+			return 0;
+		}
+		final List<Object> values = new ArrayList<Object>();
+		final String sql = SqlUtils.sqlSelectByCriteria(criteria, null, column, sqlDialect, values);
+		final AtomicInteger threads = new AtomicInteger();
+		final ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, ranges.length), r -> {
+			Thread t = new Thread(r, "dynami-scan-"+threads.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		try {
+			final List<Future<Integer>> futures = new ArrayList<Future<Integer>>(ranges.length);
+			for(long[] range : ranges){
+				futures.add(executor.submit(() -> scan(plan, criteria, sql, values, range, fetch)));
+			}
+			int processed = 0;
+			for(Future<Integer> future : futures){
+				try {
+					processed += future.get();
+				} catch (ExecutionException e) {
+					for(Future<Integer> f : futures) f.cancel(true);
+					throw (e.getCause() instanceof Exception)? (Exception)e.getCause() : e;
+				}
+			}
+			return processed;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Parallel stream of entities matching criteria, read by concurrent range queries on separate connections, see {@link #parallelScan(Criteria, Consumer, int)}.
+	 * Ranges are processed by the fork join pool running the stream, each one holding a connection while read; the stream must be closed.
+	 * @param criteria
+	 * @param parallelism number of key ranges
+	 * @return
+	 * @throws Exception
+	 */
+	public <T> Stream<T> parallelStream(Criteria<T> criteria, int parallelism) throws Exception {
+		return parallelStream(criteria, null, parallelism);
+	}
+	
+	/**
+	 * Parallel stream splitting the range of the passed field, see {@link #parallelStream(Criteria, int)}
+	 * @param field name of an indexed long, int or short field; null for the primary key
+	 */
+	public <T> Stream<T> parallelStream(Criteria<T> criteria, String field, int parallelism) throws Exception {
+		if(parallelism < 1) throw new IllegalArgumentException("Parallelism must be positive");
+		checkEntityTables(criteria);
+		final EntityPlan plan = DAOReflect.plan(criteria.clazz);
+		final Accessor column = splitColumn(plan, field);
+		final long[][] ranges = ranges(criteria, column, parallelism);
+		final List<Object> values = new ArrayList<Object>();
+		final String sql = SqlUtils.sqlSelectByCriteria(criteria, null, column, sqlDialect, values);
+		final Queue<ResultSetSpliterator<T>> opened = new ConcurrentLinkedQueue<ResultSetSpliterator<T>>();
+		final PartitionSpliterator<T> partitions = new PartitionSpliterator<T>(ranges, 0, ranges.length, (from, to) -> {
+			List<Object> params = new ArrayList<Object>(values);
+			params.add(from);
+			params.add(to);
+			ResultSetSpliterator<T> rows = open(plan, criteria, sql, params);
+			opened.add(rows);
+			return rows;
+		});
+		return StreamSupport.stream(partitions, true).onClose(() -> {
+			for(ResultSetSpliterator<T> rows : opened) rows.close();
+		});
+	}
+	
+	@SuppressWarnings("unchecked")
+	private <T> int scan(EntityPlan plan, Criteria<T> criteria, String sql, List<Object> values, long[] range, Consumer<T> fetch) throws Exception {
+		Connection conn = connection();
+		PreparedStatement pstmt = null;
+		ResultSet res = null;
+		try {
+			List<Object> params = new ArrayList<Object>(values);
+			params.add(range[0]);
+			params.add(range[1]);
+			pstmt = SqlUtils.prepare(conn, sql, params);
+			if(fetchSize > 0 && sqlDialect != SqlDialect.MySql){
+				pstmt.setFetchSize(fetchSize);
+			}
+			res = pstmt.executeQuery();
+			RowMapper mapper = plan.mapper(sql, criteria.fetch, res);
+			T obj = (T)instance(plan, criteria);
+			int processed = 0;
+			while(res.next()){
+				hydrate(criteria, plan, mapper, obj, res, false);
+				fetch.accept(obj);
+				processed++;
+			}
+			return processed;
+		} finally {
+			release(conn, pstmt, res);
+		}
+	}
+	
+	private static Accessor splitColumn(EntityPlan plan, String field) throws Exception {
+		Accessor column = null;
+		if(field != null){
+			Field f = DAOReflect.getField(plan.clazz, field);
+			if(f == null) throw new Exception("No attribute for "+field);
+			column = DAOReflect.accessor(plan.clazz, f);
+		} else if(plan.pk.length == 1){
+			column = plan.pk[0];
+		}
+		if(column == null || !(column.type.equals(long.class) || column.type.equals(int.class) || column.type.equals(short.class))){
+			throw new Exception("Parallel scan of "+plan.clazz.getName()+" requires a single long, int or short primary key or field");
+		}
+		return column;
+	}
+	
+	/**
+	 * Key ranges, both bounds inclusive, covering values of column among rows matching criteria; empty if there are no rows
+	 */
+	private long[][] ranges(Criteria<?> criteria, Accessor column, int parts) throws Exception {
+		Connection conn = connection();
+		PreparedStatement pstmt = null;
+		ResultSet res = null;
+		try {
+			List<Object> values = new ArrayList<Object>();
+			pstmt = SqlUtils.prepare(conn, SqlUtils.sqlRange(criteria, column, values), values);
+			res = pstmt.executeQuery();
+			if(!res.next() || res.getObject(1) == null){
+				return new long[0][];
+			}
+			return split(res.getLong(1), res.getLong(2), parts);
+		} finally {
+			release(conn, pstmt, res);
+		}
+	}
+	
+	/**
+	 * Splits [min, max] in at most parts contiguous ranges of equal width, computed unsigned so that the widest spans don't overflow
+	 */
+	static long[][] split(long min, long max, int parts) {
+		final long step = Long.divideUnsigned(max - min, parts) + 1;
+		final List<long[]> ranges = new ArrayList<long[]>(parts);
+		long from = min;
+		while(true){
+			final long to = (Long.compareUnsigned(max - from, step - 1) <= 0)? max : from + step - 1;
+			ranges.add(new long[]{from, to});
+			if(to == max) break;
+			from = to + 1;
+		}
+		return ranges.toArray(new long[ranges.size()][]);
+	}
+	
+	/**
+	 * Number of rows matching criteria
+	 */
+	public <T> long count(Criteria<T> criteria) throws Exception {
+		return (Long)aggregate(criteria, "count(*)", null, long.class);
+	}
+	
+	/**
+	 * Sum of field over rows matching criteria: a Long for integral fields, a Double otherwise, zero if no row matches
+	 */
+	public <T> Number sum(Criteria<T> criteria, String field) throws Exception {
+		final Class<?> type = sumType(criteria, field);
+		final Number sum = (Number)aggregate(criteria, "sum("+column(criteria, field).name+")", null, type);
+		return (sum != null)? sum : (type == long.class)? (Number)Long.valueOf(0) : Double.valueOf(0);
+	}
+	
+	/**
+	 * Minimum value of field over rows matching criteria, of the field type, null if no row matches
+	 */
+	public <T, V> V min(Criteria<T> criteria, String field) throws Exception {
+		return extreme(criteria, "min", field);
+	}
+	
+	/**
+	 * Maximum value of field over rows matching criteria, of the field type, null if no row matches
+	 */
+	public <T, V> V max(Criteria<T> criteria, String field) throws Exception {
+		return extreme(criteria, "max", field);
+	}
+	
+	/**
+	 * Average of field over rows matching criteria, null if no row matches
+	 */
+	public <T> Double avg(Criteria<T> criteria, String field) throws Exception {
+		return (Double)aggregate(criteria, "avg("+column(criteria, field).name+")", null, double.class);
+	}
+	
+	/**
+	 * Number of rows matching criteria for each value of group field, ordered by group value
+	 */
+	public <T, K> Map<K, Long> countBy(Criteria<T> criteria, String groupBy) throws Exception {
+		return aggregate(criteria, "count(*)", column(criteria, groupBy), long.class);
+	}
+	
+	/**
+	 * Sum of field for each value of group field, see {@link #sum(Criteria, String)}
+	 */
+	public <T, K> Map<K, Number> sumBy(Criteria<T> criteria, String field, String groupBy) throws Exception {
+		return aggregate(criteria, "sum("+column(criteria, field).name+")", column(criteria, groupBy), sumType(criteria, field));
+	}
+	
+	public <T, K, V> Map<K, V> minBy(Criteria<T> criteria, String field, String groupBy) throws Exception {
+		return extremeBy(criteria, "min", field, groupBy);
+	}
+	
+	public <T, K, V> Map<K, V> maxBy(Criteria<T> criteria, String field, String groupBy) throws Exception {
+		return extremeBy(criteria, "max", field, groupBy);
+	}
+	
+	public <T, K> Map<K, Double> avgBy(Criteria<T> criteria, String field, String groupBy) throws Exception {
+		return aggregate(criteria, "avg("+column(criteria, field).name+")", column(criteria, groupBy), double.class);
+	}
+	
+	@SuppressWarnings("unchecked")
+	private <T, V> V extreme(Criteria<T> criteria, String function, String field) throws Exception {
+		final Accessor column = column(criteria, field);
+		return (V)Accessor.convert(column.type, aggregate(criteria, function+"("+column.name+")", null, column.type));
+	}
+	
+	@SuppressWarnings("unchecked")
+	private <T, K, V> Map<K, V> extremeBy(Criteria<T> criteria, String function, String field, String groupBy) throws Exception {
+		final Accessor column = column(criteria, field);
+		final Map<K, Object> values = aggregate(criteria, function+"("+column.name+")", column(criteria, groupBy), column.type);
+		for(Map.Entry<K, Object> e : values.entrySet()){
+			e.setValue(Accessor.convert(column.type, e.getValue()));
+		}
+		return (Map<K, V>)values;
+	}
+	
+	private static Accessor column(Criteria<?> criteria, String field) throws Exception {
+		return SqlUtils.column(DAOReflect.plan(criteria.clazz), field);
+	}
+	
+	private static Class<?> sumType(Criteria<?> criteria, String field) throws Exception {
+		final Class<?> type = column(criteria, field).type;
+		return (type.equals(long.class) || type.equals(int.class) || type.equals(short.class)
+				|| type.equals(Long.class) || type.equals(Integer.class) || type.equals(Short.class))? long.class : double.class;
+	}
+	
+	/**
+	 * Runs aggregate query
+	 * @param group group field, null for a single value
+	 * @param type type read from result set, see {@link #value(ResultSet, int, Class)}
+	 * @return the value, or a map of values by group value ordered by group value
+	 */
+	@SuppressWarnings("unchecked")
+	private <T, R> R aggregate(Criteria<T> criteria, String expression, Accessor group, Class<?> type) throws Exception {
+		checkEntityTable(criteria.clazz);
+		final List<Object> values = new ArrayList<>();
+		final String sql = SqlUtils.sqlAggregate(criteria, expression, group, values);
+		Connection conn = connection();
+		PreparedStatement pstmt = null;
+		ResultSet res = null;
+		try {
+			pstmt = SqlUtils.prepare(conn, sql, values);
+			res = pstmt.executeQuery();
+			if(group == null){
+				return (R)(res.next()? value(res, 1, type) : null);
+			}
+			final Map<Object, Object> groups = new LinkedHashMap<>();
+			while(res.next()){
+				groups.put(Accessor.convert(group.type, value(res, 1, group.type)), value(res, 2, type));
+			}
+			return (R)groups;
+		} finally {
+			release(conn, pstmt, res);
+		}
+	}
+	
+	/**
+	 * Column value read with the getter of type, long for integral types and double for floating point ones; null for SQL null
+	 */
+	private static Object value(ResultSet res, int column, Class<?> type) throws SQLException {
+		final Object value;
+		if(type.equals(long.class) || type.equals(int.class) || type.equals(short.class)
+				|| type.equals(Long.class) || type.equals(Integer.class) || type.equals(Short.class)){
+			value = res.getLong(column);
+		} else if(type.equals(double.class) || type.equals(float.class) || type.equals(Double.class) || type.equals(Float.class)){
+			value = res.getDouble(column);
+		} else if(java.util.Date.class.isAssignableFrom(type)){
+			value = res.getDate(column);
+		} else {
+			value = res.getObject(column);
+		}
+		return res.wasNull()? null : value;
+	}
+	
+	public <T extends Number> T number(Class<T> clazz, String sql, Object...values) throws Exception{
+		if(ds == null) throw new Exception("Datasource not settled up");
+		Connection conn = connection();
+		PreparedStatement pstmt = null;
+		ResultSet res = null;
+		try {
+			pstmt = acquire(conn, sql);
+			int idx = 1;
+			for(Object v:values){
+				pstmt.setObject(idx++, v);
+			}
+			res = pstmt.executeQuery();
+			if(res.next()){
+				return number(clazz, res);
+			} else {
+				return null;
+			}
+		} catch (Exception e) {
+			throw e;
+		} finally {
+			release(conn, pstmt, res);
+		}
+	}
+	
+	public <T extends Number> List<T> numbers(Class<T> clazz, String sql, Object...values) throws Exception{
+		if(ds == null) throw new Exception("Datasource not settled up");
+		Connection conn = connection();
+		PreparedStatement pstmt = null;
+		ResultSet res = null;
+		List<T> output = new ArrayList<>();
+		try {
+			pstmt = acquire(conn, sql);
+			int idx = 1;
+			for(Object v:values){
+				pstmt.setObject(idx++, v);
+			}
+			res = pstmt.executeQuery();
+			while(res.next()){
+				final T n = number(clazz, res);
+				if(n == null){
+					return null;
+				}
+				output.add(n);
+			}
+			return output;
+		} catch (Exception e) {
+			throw e;
+		} finally {
+			release(conn, pstmt, res);
+		}
+	}
+	
+	/**
+	 * First column of current row boxed as clazz, null if clazz isn't a supported number type
+	 */
+	private static <T extends Number> T number(Class<T> clazz, ResultSet res) throws SQLException {
+		final Number n;
+		if(clazz.equals(Double.class)){
+			n = Double.valueOf(res.getDouble(1));
+		} else if(clazz.equals(Float.class)){
+			n = Float.valueOf(res.getFloat(1));
+		} else if(clazz.equals(Integer.class)){
+			n = Integer.valueOf(res.getInt(1));
+		} else if(clazz.equals(Long.class)){
+			n = Long.valueOf(res.getLong(1));
+		} else if(clazz.equals(Short.class)){
+			n = Short.valueOf(res.getShort(1));
+		} else {
+			return null;
+		}
+		return clazz.cast(n);
+	}
+	
+	public <T> List<T> select(Class<T> clazz, String sql, Object...values) throws Exception {
+		if(ds == null) throw new Exception("Datasource not settled up");
+		Connection conn = connection();
+		PreparedStatement pstmt = null;
+		ResultSet res = null;
+		List<T> result = new ArrayList<T>();
+		try {
+			pstmt = acquire(conn, sql);
+			int idx = 1;
+			for(Object v:values){
+				pstmt.setObject(idx++, v);
+			}
+			
+			res = pstmt.executeQuery();
+			EntityPlan plan = DAOReflect.plan(clazz);
+			RowMapper mapper = plan.mapper(sql, Collections.<Fetch>emptyList(), res);
+			T obj = null;
+			while(res.next()){
+				obj = clazz.cast(plan.newInstance());
+				mapper.map(obj, res);
+				result.add(obj);
+			}
+			return result;
+		} catch (Exception e) {
+			//DAOUtils.logObject(criteria);
+			throw e;
+		} finally {
+			release(conn, pstmt, res);
+		}
+	}
+	
+	public <T> T selectFirst(Class<T> clazz, String sql, Object...values) throws Exception {
+		if(ds == null) throw new Exception("Datasource not settled up");
+		Connection conn = connection();
+		PreparedStatement pstmt = null;
+		ResultSet res = null;
+		try {
+			pstmt = acquire(conn, sql);
+			int idx = 1;
+			for(Object v:values){
+				pstmt.setObject(idx++, v);
+			}
+			
+			res = pstmt.executeQuery();
+			EntityPlan plan = DAOReflect.plan(clazz);
+			RowMapper mapper = plan.mapper(sql, Collections.<Fetch>emptyList(), res);
+			if(res.next()){
+				T obj = clazz.cast(plan.newInstance());
+				mapper.map(obj, res);
+				return obj;
+			}
+			return null;
+		} catch (Exception e) {
+			//DAOUtils.logObject(criteria);
+			throw e;
+		} finally {
+			release(conn, pstmt, res);
+		}
+	}
+	
+	/**
+	 * Inserts entity, or updates the row with the same primary key if existing, through a single upsert statement of the dialect.
+	 * Entities with a serial field are updated, and inserted if no row was updated.
+	 * @param entity
+	 * @return true if the row was inserted; Sqlite doesn't tell inserted rows from updated ones and returns true for any written row,
+	 * MySql returns true also for an update leaving the row unchanged when the connection reports found rows (Connector/J default useAffectedRows=false)
+	 * @throws Exception
+	 */
+	public boolean save(Object entity)throws Exception{
+		checkComplete(entity);
+		boolean cachable = checkEntityTable(entity.getClass());
+		final EntityPlan plan = DAOReflect.plan(entity.getClass());
+		final EntityPlan.Statement upsert = plan.upsert(sqlDialect);
+		if(upsert == null){
+			if(update(entity) == 0){
+				insert(entity);
+				return true;
+			}
+			return false;
+		}
+		Connection conn = connection();
+		PreparedStatement pstmt = null;
+		ResultSet res = null;
+		try{
+			final boolean inserted;
+			if(sqlDialect == SqlDialect.PostgreSql){
+				// xmax is zero for rows inserted by the current transaction
+				pstmt = acquire(conn, upsert.sql+" returning (xmax = 0)");
+				upsert.bind(pstmt, entity);
+				res = pstmt.executeQuery();
+				inserted = res.next() && res.getBoolean(1);
+			} else {
+				pstmt = acquire(conn, upsert.sql);
+				upsert.bind(pstmt, entity);
+				final int rows = pstmt.executeUpdate();
+				// MySql counts 2 rows for an update, 1 for an insert and, with CLIENT_FOUND_ROWS, for an unchanged row too
+				inserted = (sqlDialect == SqlDialect.MySql)? rows == 1 : rows > 0;
+			}
+			if(cachable){
+				cache(entity.getClass()).put(plan.key(entity), entity);
+			}
+			return inserted;
+		} catch (Exception e) {
+			DAOReflect.logObject(entity);
+			throw e;
+		} finally {
+			release(conn, pstmt, res);
+		}
+	}
+	
+	/**
+	 * Inserts or updates all entities with batched upsert statements, see {@link #save(Object)} and {@link #insertAll(Collection)}.
+	 * Entities with a serial field are saved by {@link #saveAll(Collection)}.
+	 * @param entities
+	 * @return the number of records written by each batch, as reported by the driver
+	 * @throws Exception
+	 */
+	public int[] upsertAll(Collection<?> entities) throws Exception {
+		checkComplete(entities);
+		List<int[]> counts = new ArrayList<>();
+		for(Map.Entry<Class<?>, List<Object>> e : byClass(entities).entrySet()){
+			boolean cachable = checkEntityTable(e.getKey());
+			final EntityPlan plan = DAOReflect.plan(e.getKey());
+			final EntityPlan.Statement upsert = plan.upsert(sqlDialect);
+			if(upsert == null){
+				saveAll(e.getValue());
+				counts.add(new int[]{e.getValue().size()});
+				continue;
+			}
+			if(multiRowInsert && plan.insertFields.length > 0){
+				counts.add(executeMultiRowInsert(plan, e.getValue(), rows -> plan.upsert(rows, sqlDialect)));
+			} else {
+				counts.add(executeBatch(upsert.sql, e.getValue(), upsert::bind, null));
+			}
+			if(cachable) cacheAll(e.getValue());
+		}
+		return concat(counts);
+	}
+	
+	/**
+	 * Saves all entities in one transaction, see {@link #save(Object)}: entities are updated in batches, those not found are then inserted in batches.
+	 * Drivers not reporting the rows of each batched statement count them as updated.
+	 * @param entities
+	 * @return the number of entities inserted
+	 * @throws Exception
+	 */
+	public int saveAll(Collection<?> entities) throws Exception {
+		checkComplete(entities);
+		return callInTransaction(s -> {
+			int inserted = 0;
+			for(Map.Entry<Class<?>, List<Object>> e : byClass(entities).entrySet()){
+				boolean cachable = checkEntityTable(e.getKey());
+				final EntityPlan plan = DAOReflect.plan(e.getKey());
+				if(cachable) uncache(e.getValue());
+				final List<Object> missing = updateRows(plan, e.getValue());
+				if(!missing.isEmpty()){
+					insertAll(missing);
+					inserted += missing.size();
+				}
+			}
+			return inserted;
+		});
+	}
+	
+	/**
+	 * Updates entities in batches on the session connection
+	 * @return entities not found
+	 */
+	private List<Object> updateRows(EntityPlan plan, List<Object> items) throws Exception {
+		final List<Object> missing = new ArrayList<>();
+		final Connection conn = connection();
+		PreparedStatement pstmt = null;
+		try {
+			pstmt = acquire(conn, plan.update.sql);
+			for (int from = 0; from < items.size(); from += batchSize) {
+				final int to = Math.min(items.size(), from + batchSize);
+				for (int i = from; i < to; i++) {
+					plan.update.bind(pstmt, items.get(i));
+					pstmt.addBatch();
+				}
+				final int[] rows = pstmt.executeBatch();
+				for (int i = 0; i < rows.length; i++) {
+					if(rows[i] == 0) missing.add(items.get(from + i));
+				}
+			}
+			return missing;
+		} finally {
+			release(conn, pstmt, null);
+		}
+	}
+	
+	/**
+	 * Creates a write-behind buffer coalescing writes to the same entities and flushing them in batches, see {@link WriteBehind}
+	 * @param batchSize pending writes triggering a flush
+	 * @param maxPending pending writes blocking writers until a flush completes
+	 * @param flushMillis interval of background flushes, 0 to flush only on batch size, explicit flush and close
+	 */
+	public WriteBehind writeBehind(int batchSize, int maxPending, long flushMillis) {
+		return writeBehind(batchSize, maxPending, flushMillis, 60000);
+	}
+	
+	/**
+	 * @param waitMillis maximum wait of writers for room in a full buffer, then they fail
+	 * @see #writeBehind(int, int, long)
+	 */
+	public WriteBehind writeBehind(int batchSize, int maxPending, long flushMillis, long waitMillis) {
+		return new WriteBehind(this, batchSize, maxPending, flushMillis, waitMillis);
+	}
+	
+	
+	/**
+	 * Inserts entity if no row matches criteria, with a single statement.
+	 * On MySql, and when criteria don't compare a unique key, a concurrent insert of the same row may fail with a duplicate key error
+	 * @param entity
+	 * @param criteria
+	 * @return true if entity has been inserted
+	 * @throws Exception
+	 */
+	public <T> boolean insertIfNotExist(T entity, Criteria<? extends T> criteria) throws Exception{
+		boolean cachable = checkEntityTable(entity.getClass());
+		final EntityPlan plan = DAOReflect.plan(entity.getClass());
+		final List<Object> values = new ArrayList<>();
+		final String sql = SqlUtils.sqlInsertIfNotExist(plan, entity, criteria, sqlDialect, values);
+		Connection conn = connection();
+		PreparedStatement pstmt = null;
+		try{
+			pstmt = SqlUtils.prepareInsert(conn, sql, plan, sqlDialect);
+			int idx = plan.insert.bind(pstmt, entity);
+			for(Object v : values){
+				pstmt.setObject(idx++, v);
+			}
+			if(pstmt.executeUpdate() == 0){
+				return false;
+			}
+			if(plan.serial != null){
+				SqlUtils.generatedKeys(pstmt, plan, entity);
+			}
+			if(cachable){
+				cache(entity.getClass()).put(plan.key(entity), entity);
+			}
+			return true;
+		} catch (Exception e) {
+			DAOReflect.logObject(entity);
+			throw e;
+		} finally {
+			release(conn, pstmt, null);
+		}
+	}
+	
+	/**
+	 * Checks whether any row matches criteria, without reading it
+	 * @param criteria
+	 * @return true if a row exists
+	 * @throws Exception
+	 */
+	public <T> boolean exists(Criteria<T> criteria) throws Exception {
+		checkEntityTable(criteria.clazz);
+		final List<Object> values = new ArrayList<>();
+		final String sql = SqlUtils.sqlExists(criteria, values);
+		Connection conn = connection();
+		PreparedStatement pstmt = null;
+		ResultSet res = null;
+		try{
+			pstmt = SqlUtils.prepare(conn, sql, values);
+			res = pstmt.executeQuery();
+			return res.next();
+		} finally {
+			release(conn, pstmt, res);
+		}
+	}
+	
+	public void executeNativeSQL(String sql) throws Exception {
+		Statement pstmt = null;
+		Connection conn = connection();
+		try{
+			pstmt = conn.createStatement();
+			String[] statements = sql.split(";");
+			for(String s:statements){
+				pstmt.addBatch(s);
+			}
+			pstmt.executeBatch();
+		}catch(Exception e){
+			throw e;
+		} finally{
+			 release(conn, pstmt, null);
+		}
+	}
+	
+	/**
+	 * Prepares statement, taking it from the statement cache if enabled
+	 */
+	PreparedStatement acquire(Connection conn, String sql) throws SQLException {
+		return statementCache.acquire(conn, sql);
+	}
+	
+	/**
+	 * Closes result set, puts back or closes statement and releases connection
+	 */
+	private void release(Connection conn, Statement stmt, ResultSet res) {
+		if(res != null){
+			try {
+				res.close();
+			} catch (Exception e) {}
+		}
+		statementCache.release(conn, stmt);
+		release(conn);
+	}
+	
+	/**
+	 * Connection of the session open on this thread, a new one from data source otherwise
+	 */
+	private Connection connection() throws SQLException {
+		final Session s = session.get();
+		return (s != null)? s.use() : ds.getConnection();
+	}
+	
+	/**
+	 * Releases connection, discarding its cached statements if it has been closed. Session connection is kept.
+	 */
+	private void release(Connection conn) {
+		final Session s = session.get();
+		if(s != null && s.connection() == conn) return;
+		release.accept(conn);
+		try {
+			if(conn.isClosed()){
+				statementCache.invalidate(conn);
+			}
+		} catch (SQLException e) {
+			statementCache.invalidate(conn);
+		}
+	}
+	
+	void closed(Session s) {
+		if(session.get() == s){
+			session.remove();
+		}
+		release(s.connection());
+	}
+	
+	/**
+	 * Forgets registration of entities, whose tables have been rolled back
+	 */
+	void unregister(Collection<Class<?>> entities) {
+		for(Class<?> entity : entities){
+			cached_classes.remove(entity);
+		}
+	}
+	
+	void clearCaches() {
+		for(EntityCache cache : caches.values()){
+			cache.clear();
+		}
+	}
+	
+	/**
+	 * Registers entity at first use
+	 * @return whether entity is cached
+	 */
+	private boolean checkEntityTable(Class<?> entity) throws Exception {
+		FutureTask<Boolean> registration = cached_classes.get(entity);
+		if(registration == null){
+			if(ds == null && schemaMode != SchemaMode.NONE) throw new Exception("Datasource not settled up");
+			if(DAOReflect.getEntity(entity) == null){
+				throw new Exception("Object passed as parameter is not an Entity");
+			}
+			// the first use runs the table script outside the map lock, concurrent first uses wait for it
+			final FutureTask<Boolean> task = new FutureTask<>(() -> registerTable(entity));
+			registration = cached_classes.putIfAbsent(entity, task);
+			if(registration == null){
+				registration = task;
+				task.run();
+			}
+		}
+		try {
+			return registration.get();
+		} catch (ExecutionException e) {
+			cached_classes.remove(entity, registration);
+			throw (e.getCause() instanceof Exception)? (Exception)e.getCause() : e;
+		}
+	}
+	
+	/**
+	 * Creates or validates table of entity according to schema mode
+	 * @return whether entity is cached
+	 */
+	private boolean registerTable(Class<?> c) throws Exception {
+		DAOReflect.plan(c);
+		switch (schemaMode) {
+		case CREATE:
+			createTable(c);
+			break;
+		case VALIDATE:
+			validateTable(c);
+			break;
+		default:
+			break;
+		}
+		return c.getAnnotation(IEntity.class).cache();
+	}
+	
+	/**
+	 * Runs the table script of entity. Within a session it runs on another connection of the data source,
+	 * since MySql commits the open transaction on DDL. It runs in the session transaction on Sqlite,
+	 * whose database lock is held by the session, and when the data source hands out the session connection:
+	 * then the session forgets the entity if it rolls back.
+	 */
+	private void createTable(Class<?> c) throws Exception {
+		final String sql = DAOReflect.sqlTableScript(sqlDialect, DAOReflect.getEntity(c));
+		final Session s = session.get();
+		final Connection conn = (s == null || sqlDialect == SqlDialect.Sqlite)? null : ds.getConnection();
+		if(conn == null || conn == s.connection()){
+			executeNativeSQL(sql);
+			if(s != null){
+				s.registered(c);
+			}
+			return;
+		}
+		Statement stmt = null;
+		try {
+			stmt = conn.createStatement();
+			for(String statement : sql.split(";")){
+				stmt.addBatch(statement);
+			}
+			stmt.executeBatch();
+			if(!conn.getAutoCommit()){
+				conn.commit();
+			}
+		} finally {
+			SqlUtils.closeAll(stmt);
+			release(conn);
+		}
+	}
+	
+	/**
+	 * @throws Exception if table of entity doesn't exist or misses the column of any field
+	 */
+	private void validateTable(Class<?> clazz) throws Exception {
+		final EntityPlan plan = DAOReflect.plan(clazz);
+		final Connection conn = connection();
+		Statement stmt = null;
+		ResultSet res = null;
+		final Set<String> columns = new HashSet<>();
+		try {
+			stmt = conn.createStatement();
+			res = stmt.executeQuery("select * from "+plan.table+" where 1 = 0");
+			final ResultSetMetaData md = res.getMetaData();
+			for (int i = 1; i <= md.getColumnCount(); i++) {
+				columns.add(md.getColumnName(i).toLowerCase());
+			}
+		} catch (SQLException e) {
+			throw new Exception("Table "+plan.table+" of "+clazz.getName()+" can't be read: "+e.getMessage(), e);
+		} finally {
+			release(conn, stmt, res);
+		}
+		final List<String> missing = new ArrayList<>();
+		for(Accessor field : plan.fields){
+			if(!columns.contains(field.name.toLowerCase())){
+				missing.add(field.name);
+			}
+		}
+		if(!missing.isEmpty()){
+			throw new Exception("Table "+plan.table+" of "+clazz.getName()+" misses columns "+missing);
+		}
+	}
+	
+	public void executeNativeSQL(String sql, Object...values) throws Exception {
+		if(ds == null) throw new Exception("Datasource not settled up");
+		Connection conn = connection();
+		PreparedStatement pstmt = null;
+		try{
+			pstmt = acquire(conn, sql);
+			for(int i = 1; i <= values.length; i++){
+				pstmt.setObject(i, values[i-1]);
+			}
+			pstmt.execute();
+		}catch(Exception e){
+			throw e;
+		} finally{
+			 release(conn, pstmt, null);
+		}
+	}
+	
+	/**
+	 * Values entity fields from current row, foreign keys are taken from joined columns when fetched by criteria and loaded otherwise
+	 * @param references foreign keys of joined entities to load once the result set is closed
+	 */
+	private void hydrate(Criteria<?> criteria, EntityPlan plan, RowMapper mapper, Object entity, ResultSet res, List<Reference> references) throws Exception {
+		hydrate(criteria, plan, mapper, entity, res, true, references);
+	}
+	
+	/**
+	 * Values entity fields from current row, passing to entity only foreign keys fetched or lazy by criteria,
+	 * as rows are scanned while the result set holds the connection
+	 */
+	private void hydrate(Criteria<?> criteria, EntityPlan plan, RowMapper mapper, Object entity, ResultSet res, boolean references) throws Exception {
+		hydrate(criteria, plan, mapper, entity, res, references, null);
+	}
+	
+	private void hydrate(Criteria<?> criteria, EntityPlan plan, RowMapper mapper, Object entity, ResultSet res, boolean references, List<Reference> pending) throws Exception {
+		mapper.map(entity, res);
+		final boolean projected = criteria != null && !criteria.select.isEmpty();
+		for (int i = 0; i < plan.fks.length; i++) {
+			if(projected && !criteria.select.contains(plan.fks[i]) && !requested(criteria, plan.fks[i])) continue;
+			if(references || requested(criteria, plan.fks[i])){
+				reference(criteria, mapper, plan.fks[i], entity, res, pending);
+			}
+		}
+	}
+	
+	/**
+	 * New entity to be valued by a criteria select, marked as partial if criteria selects only some fields
+	 */
+	private Object instance(EntityPlan plan, Criteria<?> criteria) throws Exception {
+		final Object entity = plan.newInstance();
+		if(criteria != null && !criteria.select.isEmpty()){
+			partial.add(entity);
+		}
+		return entity;
+	}
+	
+	/**
+	 * @throws IllegalArgumentException if entity has been selected with a projection, see {@link Criteria#select(String...)}
+	 */
+	void checkComplete(Object entity) {
+		if(partial.contains(entity)){
+			throw new IllegalArgumentException("Partial "+entity.getClass().getSimpleName()+" selected with a projection can't be written, get(entity) loads all its fields");
+		}
+	}
+	
+	private void checkComplete(Collection<?> entities) {
+		for(Object entity : entities){
+			checkComplete(entity);
+		}
+	}
+	
+	private static boolean requested(Criteria<?> criteria, Accessor field) {
+		if(criteria.lazy.contains(field)) return true;
+		for (int i = 0; i < criteria.fetch.size(); i++) {
+			if(criteria.fetch.get(i).fk == field) return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Passes referenced object of a foreign key field to entity: joined, lazy or loaded
+	 * @param pending foreign keys of joined entities to load later, null to pass them only if lazy
+	 */
+	private void reference(Criteria<?> criteria, RowMapper mapper, Accessor field, Object entity, ResultSet res, List<Reference> pending) throws Exception {
+		boolean lazy = field.meta.lazy();
+		if(criteria != null){
+			for (int i = 0; i < criteria.fetch.size(); i++) {
+				if(criteria.fetch.get(i).fk == field){
+					field.load(entity, joined(criteria.fetch.get(i), mapper.children[i], res, pending));
+					return;
+				}
+			}
+			lazy |= criteria.lazy.contains(field);
+		}
+		if(lazy && field.isLazyLoadable()){
+			field.loadLazy(entity, new Lazy<Object>(field.meta.fk(), field.get(entity)));
+		} else {
+			field.load(entity, load(field.meta.fk(), field.get(entity)));
+		}
+	}
+	
+	/**
+	 * Referenced entity valued from joined columns of current row, null when no row matched.
+	 * Cached instances are preferred to the joined ones, as {@link #load(Class, Object...)} does.
+	 * Foreign keys of the joined entity aren't loaded while the result set holds the connection: lazy ones get a {@link Lazy},
+	 * the others are added to pending, or left unloaded if pending is null.
+	 */
+	private Object joined(Fetch fetch, RowMapper mapper, ResultSet res, List<Reference> pending) throws Exception {
+		if(mapper.isNull(res)){
+			return null;
+		}
+		final EntityPlan target = fetch.target;
+		final EntityCache cache = checkEntityTable(target.clazz)? cache(target.clazz) : null;
+		Object key = null;
+		final Object id = (cache != null && target.pk.length == 1)? mapper.key(res) : null;
+		if(id != null){
+			key = target.key(new Object[]{ id });
+			Object cached = cache.get(key);
+			if(cached != null){
+				return cached;
+			}
+		}
+		final Object child = target.newInstance();
+		mapper.map(child, res);
+		if(cache != null && key == null){
+			key = target.key(child);
+			Object cached = cache.get(key);
+			if(cached != null){
+				return cached;
+			}
+		}
+		for (int i = 0; i < target.fks.length; i++) {
+			final Accessor field = target.fks[i];
+			if(field.meta.lazy() && field.isLazyLoadable()){
+				field.loadLazy(child, new Lazy<Object>(field.meta.fk(), field.get(child)));
+			} else if(pending != null){
+				pending.add(new Reference(field, child));
+			}
+		}
+		if(cache != null){
+			cache.put(key, child);
+		}
+		return child;
+	}
+	
+	/**
+	 * Foreign key of an entity to load after the result set it has been read from is closed
+	 */
+	private static final class Reference {
+		final Accessor field;
+		final Object entity;
+		
+		Reference(Accessor field, Object entity) {
+			this.field = field;
+			this.entity = entity;
+		}
+	}
+	
+	private void load(List<Reference> references) throws Exception {
+		for(Reference r : references){
+			r.field.load(r.entity, load(r.field.meta.fk(), r.field.get(r.entity)));
+		}
+	}
+	
+	private void checkEntityTables(Criteria<?> criteria) throws Exception {
+		checkEntityTable(criteria.clazz);
+		for(Fetch fetch : criteria.fetch){
+			checkEntityTable(fetch.target.clazz);
+		}
+	}
+	
+	@Retention(RetentionPolicy.RUNTIME)
+	@Target(ElementType.FIELD)
+	public @interface IField {
+		
+		/**
+		 * Indicates field as Primary key
+		 * @return
+		 */
+		boolean pk() default false;
+		
+		/**
+		 * Generate serial number for field
+		 * @return
+		 */
+		boolean serial() default false;
+		
+		/**
+		 * Indicates whether the field can be settled with a null value
+		 * @return
+		 */
+		boolean nullable() default true;
+		
+		/**
+		 * Indicates whether the field can be duplicated
+		 * @return
+		 */
+		boolean unique() default false;
+		
+		/**
+		 * Defines column name, if isn't specified it is equal to field name 
+		 * @return
+		 */
+		String name() default "";
+		
+		/**
+		 * Override default "java type"/"sqlite type" mapping
+		 * @return
+		 */
+		String type() default "";
+		
+		String defaultValue() default ""; 
+		
+		int lenght() default 0;
+		
+		/**
+		 * Refers to one to many relation object
+		 * @return
+		 */
+		Class<?> fk() default Object.class;
+		
+		/**
+		 * Loads referenced object on first access, passing a {@link Lazy} reference to load&lt;ClassName&gt;(Lazy) method.
+		 * Ignored if entity doesn't declare such a method.
+		 * @return
+		 */
+		boolean lazy() default false;
+		
+		boolean index() default false;
+	}
+	
+	@Retention(RetentionPolicy.RUNTIME)
+	@Target(ElementType.TYPE)
+	public @interface IEntity {
+		String name() default "";
+		/**
+		 * Indicates whether object can be cached or not.
+		 * @return
+		 */
+		boolean cache() default false;
+		
+		/**
+		 * Maximum number of cached objects, least recently used are evicted first
+		 * @return
+		 */
+		int cacheSize() default 10000;
+		
+		/**
+		 * Time to live in milliseconds of cached objects, 0 means they never expire
+		 * @return
+		 */
+		long cacheTtl() default 0;
+	}
+	
+	@FunctionalInterface
+	interface Binder {
+		void bind(PreparedStatement pstmt, Object item) throws Exception;
+	}
+	
+	@FunctionalInterface
+	public interface Release extends Consumer<Connection> {
+		@Override
+		default void accept(final Connection elem) {
+			try {
+				acceptThrows(elem);
+			} catch (final Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+		void acceptThrows(Connection elem) throws Exception;
+	}
+	
+	public static class SingleConnectionDataSource implements DataSource {
+		private PrintWriter out = new PrintWriter(System.out);
+		private final Connection conn;
+		
+		public SingleConnectionDataSource(Connection conn) {
+			this.conn = conn;
+		}
+		
+		@Override
+		public PrintWriter getLogWriter() throws SQLException {
+			return out;
+		}
+
+		@Override
+		public void setLogWriter(PrintWriter out) throws SQLException {
+			this.out = out;
+		}
+
+		@Override
+		public void setLoginTimeout(int seconds) throws SQLException {}
+
+		@Override
+		public int getLoginTimeout() throws SQLException { return 0; }
+
+		@Override
+		public Logger getParentLogger() throws SQLFeatureNotSupportedException { return null; }
+
+		@Override
+		public <T> T unwrap(Class<T> iface) throws SQLException { return null; }
+
+		@Override
+		public boolean isWrapperFor(Class<?> iface) throws SQLException {return false;}
+
+		@Override
+		public Connection getConnection() throws SQLException {
+			return conn;
+		}
+
+		@Override
+		public Connection getConnection(String username, String password) throws SQLException {
+			return conn;
+		}
+	}
+}
@@ -15,15 +15,22 @@
  */
 package org.dynami.orm;
 
+import java.io.File;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.net.JarURLConnection;
+import java.net.URL;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Enumeration;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiFunction;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
 
 import org.dynami.orm.DAO.IEntity;
 import org.dynami.orm.DAO.IField;
@@ -31,9 +38,18 @@ import org.dynami.orm.DAO.SqlDialect;
 
 class DAOReflect {
 	private static final SimpleDateFormat df = new SimpleDateFormat("dd/MM/yyyy");
-	private static final SimpleDateFormat DATE_TYPE = new SimpleDateFormat("yyyyMMdd");
-	private static final Map<String,Class<?>> cache_classes = new TreeMap<String, Class<?>>();
-	private static final Map<String,Field[]> cache_fields = new TreeMap<String, Field[]>();
+	private static final Map<String,Class<?>> cache_classes = new ConcurrentHashMap<String, Class<?>>();
+	private static final Map<String,Field[]> cache_fields = new ConcurrentHashMap<String, Field[]>();
+	private static final Map<String,Field[]> cache_pk = new ConcurrentHashMap<String, Field[]>();
+	private static final Map<String,Field[]> cache_no_pk = new ConcurrentHashMap<String, Field[]>();
+	private static final Map<Class<?>,Accessor[]> cache_accessors = new ConcurrentHashMap<Class<?>, Accessor[]>();
+	private static final Map<Class<?>,EntityPlan> cache_plans = new ConcurrentHashMap<Class<?>, EntityPlan>();
+	private static final Map<Class<?>,Optional<EntityMapper<?>>> cache_mappers = new ConcurrentHashMap<Class<?>, Optional<EntityMapper<?>>>();
+	
+	/**
+	 * Suffix of the mapper class generated for an entity, see {@link EntityMapper}
+	 */
+	static final String MAPPER_SUFFIX = "_DynamiMapper";
 	
 	public static final int TRUE = 1;
 	public static final int FALSE = 0;
@@ -42,24 +58,14 @@ class DAOReflect {
 		if(obj == null){
 			throw new RuntimeException("Object passed as parameter not valued");
 		}
-		Class<?> e = getEntity(obj);
-		
-		List<Field> pks = new ArrayList<Field>();
-		Field[] fields = cache_fields.get(e.getName());
-		for (int i = 0; i < fields.length; i++) {
-			IField f = fields[i].getAnnotation(IField.class);
-			if(f != null && f.pk()){
-				pks.add(fields[i]);
-			}
-		}
-		return pks.toArray(new Field[pks.size()]);
+		return cache_pk.get(getEntity(obj).getName());
 	}
 	
 	public static Object[] pkValues(Object entity) throws Exception{
-		Field[] pks = pk(entity);
+		Accessor[] pks = plan(entity.getClass()).pk;
 		Object[] res = new Object[pks.length];
 		for(int i = 0; i < pks.length; i++){
-			res[i] = get(entity, pks[i]);
+			res[i] = pks[i].get(entity);
 		}
 		return res;
 	}
@@ -74,24 +80,12 @@ class DAOReflect {
 	}
 	
 	
+	/**
+	 * Entity fields, arrays are shared and must not be modified
+	 */
 	public static Field[] fields(Class<?> clazz, boolean withPk) throws Exception {
 		getEntity(clazz);
-		List<Field> pks = new ArrayList<Field>();
-		Field[] fields = cache_fields.get(clazz.getName());
-		for (int i = 0; i < fields.length; i++) {
-			IField f = fields[i].getAnnotation(IField.class);
-			if(f != null){
-				if(withPk && f.pk()){
-					pks.add(fields[i]);
-				} else if(!withPk && f.pk()) {
-				} else {
-					pks.add(fields[i]);
-				}
-			}
-		}
-		Field[] out = new Field[pks.size()];
-		pks.toArray(out);
-		return out;
+		return withPk? cache_fields.get(clazz.getName()) : cache_no_pk.get(clazz.getName());
 	}
 	
 	public static Field[] fields(Object obj, boolean withPk) throws Exception {
@@ -102,57 +96,114 @@ class DAOReflect {
 	}
 	
 	public static Object get(Object obj, Field field) throws Exception{
-		if(field.getClass().equals(java.util.Date.class)){
-			Date d = (Date)cache_classes.get(obj.getClass().getName()).getMethod(getter(field.getName(), field.getType().equals(Boolean.TYPE)), new Class[]{}).invoke(obj, new Object[]{});
-			return Integer.parseInt(DATE_TYPE.format(d));
-		} else{
-			return cache_classes.get(obj.getClass().getName()).getMethod(getter(field.getName(), field.getType().equals(Boolean.TYPE)), new Class[]{}).invoke(obj, new Object[]{});
-		}
+		return accessor(obj.getClass(), field).get(obj);
 	}
 	
 	public static Object set(Object obj, Field field, Object value) throws Exception{
-		if(field.getClass().equals(java.util.Date.class)){
-			Date d = DATE_TYPE.parse( String.valueOf(value));
-			return cache_classes.get(obj.getClass().getName()).getMethod(setter(field.getName()), new Class[]{field.getType()}).invoke(obj, new Object[]{d});
-		} else {
-			return cache_classes.get(obj.getClass().getName()).getMethod(setter(field.getName()), new Class[]{field.getType()}).invoke(obj, new Object[]{value});
-		}
+		accessor(obj.getClass(), field).set(obj, value);
+		return null;
 	}
 	
 	public static void load(Object obj, String className, Object value) throws Exception{
+		Accessor[] accessors = accessors(obj.getClass());
+		for (int i = 0; i < accessors.length; i++) {
+			if(accessors[i].isFk() && accessors[i].meta.fk().getSimpleName().equals(className)){
+				accessors[i].load(obj, value);
+				return;
+			}
+		}
 		Class<?> clazz = cache_classes.get(obj.getClass().getName());
-		Method method = clazz.getMethod(loader(className), new Class[]{value.getClass()} );
+		Method method = clazz.getMethod(Accessor.loader(className), new Class[]{value.getClass()} );
 		method.invoke(obj, new Object[]{value});
 	}
 	
-	private static String getter(String fieldName, boolean isBoolean){
-		char[] cs =fieldName.toCharArray();
-		cs[0] = Character.toUpperCase(cs[0]);
-		return  ((isBoolean)?"is":"get")+ (new String(cs));
+	/**
+	 * Compiled accessors of all entity fields, in the same order of {@link #fields(Class, boolean)}
+	 * @param clazz entity class
+	 * @return accessors resolved once per entity class
+	 */
+	static Accessor[] accessors(Class<?> clazz) {
+		Accessor[] out = cache_accessors.get(clazz);
+		if(out == null){
+			if(getEntity(clazz) == null){
+				throw new RuntimeException("Object passed as parameter not a valid table class");
+			}
+			Field[] fields = cache_fields.get(clazz.getName());
+			out = new Accessor[fields.length];
+			for (int i = 0; i < fields.length; i++) {
+				out[i] = Accessor.of(clazz, fields[i]);
+			}
+			Accessor[] prev = cache_accessors.putIfAbsent(clazz, out);
+			if(prev != null) out = prev;
+		}
+		return out;
+	}
+	
+	static Accessor accessor(Class<?> clazz, Field field) throws Exception {
+		Accessor[] accessors = accessors(clazz);
+		for (int i = 0; i < accessors.length; i++) {
+			if(accessors[i].field.equals(field)){
+				return accessors[i];
+			}
+		}
+		throw new NoSuchFieldException(clazz.getName()+"."+field.getName());
+	}
+	
+	static Accessor[] pkAccessors(Class<?> clazz) {
+		return plan(clazz).pk;
+	}
+	
+	/**
+	 * Statement plan of entity class, built once at first use
+	 */
+	static EntityPlan plan(Class<?> clazz) {
+		EntityPlan plan = cache_plans.get(clazz);
+		if(plan == null){
+			plan = new EntityPlan(clazz);
+			EntityPlan prev = cache_plans.putIfAbsent(clazz, plan);
+			if(prev != null) plan = prev;
+		}
+		return plan;
 	}
 	
-	private static String setter(String input){
-		char[] tmp = input.toCharArray();
-		tmp[0] = Character.toUpperCase(tmp[0]);
-		return "set".concat(new String(tmp));
+	/**
+	 * Mapper generated at build time for entity class, looked up once
+	 * @return null if entity has none
+	 */
+	@SuppressWarnings("unchecked")
+	static EntityMapper<Object> mapper(Class<?> clazz) {
+		return (EntityMapper<Object>)cache_mappers.computeIfAbsent(clazz, DAOReflect::loadMapper).orElse(null);
 	}
 	
-	private static String loader(String input){
-		char[] tmp = input.toCharArray();
-		tmp[0] = Character.toUpperCase(tmp[0]);
-		return "load".concat(new String(tmp));
+	/**
+	 * Generated mappers are ignored if system property dynami.orm.mappers is false
+	 */
+	private static Optional<EntityMapper<?>> loadMapper(Class<?> clazz) {
+		if(!Boolean.parseBoolean(System.getProperty("dynami.orm.mappers", "true"))){
+			return Optional.empty();
+		}
+		final String name = clazz.getName().replace('$', '_')+MAPPER_SUFFIX;
+		try {
+			final Class<?> c = Class.forName(name, true, clazz.getClassLoader());
+			final EntityMapper<?> mapper = (EntityMapper<?>)c.getDeclaredConstructor().newInstance();
+			if(mapper.entity() == clazz){
+				return Optional.of(mapper);
+			}
+		} catch (Exception | LinkageError e) {
+			// not generated or not usable, fields are accessed by reflection
+		}
+		return Optional.empty();
 	}
 	
 	public static void logObject(Object input){
 		try {
 			Class<?> clazz = input.getClass();
-			Field[] fields =  cache_fields.get(clazz.getName());
-			for (int i = 0; i < fields.length; i++) {
+			Accessor[] accessors = accessors(clazz);
+			for (int i = 0; i < accessors.length; i++) {
 				try{
-					Method method =  clazz.getDeclaredMethod(getter(fields[i].getName(), fields[i].getType().equals(Boolean.TYPE)), new Class[]{});
 					//log.debug(fields[i].getName()+":\t");
-					System.out.print(fields[i].getName()+":\t");
-					Object obj = method.invoke(input, new Object[]{});
+					System.out.print(accessors[i].field.getName()+":\t");
+					Object obj = accessors[i].get(input);
 					if(obj instanceof java.util.Date){
 						//log.debug(df.format(obj));
 						System.out.println(df.format(obj));
@@ -168,6 +219,24 @@ class DAOReflect {
 	}
 	
 	
+	/**
+	 * Sqlite autoincrements only a column that is the whole primary key, declared inline as INTEGER PRIMARY KEY AUTOINCREMENT
+	 */
+	private static void checkSqliteSerial(Class<?> clazz, Field[] fields) {
+		Field serial = null;
+		int pks = 0;
+		for(Field field : fields){
+			IField f = field.getAnnotation(IField.class);
+			if(f.pk()){
+				pks++;
+				if(f.serial() && "".equals(f.type())) serial = field;
+			}
+		}
+		if(serial != null && pks > 1){
+			throw new RuntimeException("Serial field "+serial.getName()+" of "+clazz.getName()+" must be the only primary key on Sqlite");
+		}
+	}
+	
 	static String sqlTableScript(DAO.SqlDialect dialect, Class<?> clazz) throws Exception {
 		if(clazz == null){
 			throw new RuntimeException("Object passed as parameter not valued");
@@ -199,6 +268,9 @@ class DAOReflect {
 		tableBuffer.append(tableName);
 		tableBuffer.append(" ( ");
 		Field[] fields = fields(clazz, true);
+		if(dialect == SqlDialect.Sqlite){
+			checkSqliteSerial(clazz, fields);
+		}
 		IField f = null;
 		boolean isPrimaryKeySetted = false;
 		for (int i = 0; i < fields.length; i++) {
@@ -207,7 +279,9 @@ class DAOReflect {
 			fieldName = getName(fields[i]);
 			tableBuffer.append(fieldName);
 			tableBuffer.append(getType(SqlDialect.Sqlite, f, fields[i], dataTypeProvider));
-			if(f.pk()){
+			if(f.pk() && dialect == SqlDialect.Sqlite && f.serial() && "".equals(f.type())){
+				// declared inline as INTEGER PRIMARY KEY AUTOINCREMENT
+			} else if(f.pk()){
 				if(isPrimaryKeySetted) {
 					pkBuilder.append(", ");
 				}
@@ -270,6 +344,57 @@ class DAOReflect {
 			return a.name();
 	}
 	
+	/**
+	 * Classes annotated with {@link IEntity} in package and its subpackages, found in directories and jars of class loader, sorted by name
+	 */
+	static List<Class<?>> scan(String packageName, ClassLoader loader) throws Exception {
+		final String path = packageName.replace('.', '/');
+		final TreeMap<String, Class<?>> classes = new TreeMap<>();
+		final Enumeration<URL> resources = loader.getResources(path);
+		while(resources.hasMoreElements()){
+			final URL url = resources.nextElement();
+			if("file".equals(url.getProtocol())){
+				scan(new File(url.toURI()), packageName, loader, classes);
+			} else if("jar".equals(url.getProtocol())){
+				final JarURLConnection connection = (JarURLConnection)url.openConnection();
+				connection.setUseCaches(false);
+				try(JarFile jar = connection.getJarFile()){
+					final Enumeration<JarEntry> entries = jar.entries();
+					while(entries.hasMoreElements()){
+						final String name = entries.nextElement().getName();
+						if(name.startsWith(path+"/") && name.endsWith(".class")){
+							addEntity(name.substring(0, name.length() - 6).replace('/', '.'), loader, classes);
+						}
+					}
+				}
+			}
+		}
+		return new ArrayList<>(classes.values());
+	}
+	
+	private static void scan(File dir, String packageName, ClassLoader loader, Map<String, Class<?>> classes) {
+		final File[] files = dir.listFiles();
+		if(files == null) return;
+		for(File file : files){
+			if(file.isDirectory()){
+				scan(file, packageName+"."+file.getName(), loader, classes);
+			} else if(file.getName().endsWith(".class")){
+				addEntity(packageName+"."+file.getName().substring(0, file.getName().length() - 6), loader, classes);
+			}
+		}
+	}
+	
+	private static void addEntity(String className, ClassLoader loader, Map<String, Class<?>> classes) {
+		try {
+			final Class<?> clazz = Class.forName(className, false, loader);
+			if(clazz.isAnnotationPresent(IEntity.class)){
+				classes.put(className, clazz);
+			}
+		} catch (Throwable e) {
+			// not loadable, not an entity
+		}
+	}
+	
 	public static boolean isEntity(Object obj) throws Exception {
 		return (getEntity(obj) != null);
 	}
@@ -290,7 +415,6 @@ class DAOReflect {
 		} else {
 			IEntity a = clazz.getAnnotation(IEntity.class);
 			if(a == null) return null;
-			cache_classes.put(clazz.getName(), clazz);
 			
 			Class<?> c = clazz;
 			
@@ -306,9 +430,20 @@ class DAOReflect {
 				
 				c = c.getSuperclass();
 			}
-			Field[] out = new Field[tmp_out.size()];
-			tmp_out.toArray(out);
-			cache_fields.put(clazz.getName(), out);
+			final List<Field> pk = new ArrayList<Field>();
+			final List<Field> noPk = new ArrayList<Field>();
+			for(Field f:tmp_out){
+				if(f.getAnnotation(IField.class).pk()){
+					pk.add(f);
+				} else {
+					noPk.add(f);
+				}
+			}
+			cache_pk.put(clazz.getName(), pk.toArray(new Field[pk.size()]));
+			cache_no_pk.put(clazz.getName(), noPk.toArray(new Field[noPk.size()]));
+			cache_fields.put(clazz.getName(), tmp_out.toArray(new Field[tmp_out.size()]));
+			// published last, so that other threads never see a class without its fields
+			cache_classes.put(clazz.getName(), clazz);
 			return clazz;
 		}
 	}
@@ -356,11 +491,11 @@ class DAOReflect {
 			} else if(field.getType().equals(float.class)){
 				return " REAL ";
 			} else if(field.getType().equals(int.class)){				
-				return " INTEGER "+(f.serial()?"AUTOINCREMENT ":"");
+				return " INTEGER "+((f.serial() && f.pk())?"PRIMARY KEY AUTOINCREMENT ":"");
 			} else if(field.getType().equals(boolean.class)){
 				return " INTEGER ";
 			} else if(field.getType().equals(long.class)){
-				return " INTEGER "+(f.serial()?"AUTOINCREMENT ":"");
+				return " INTEGER "+((f.serial() && f.pk())?"PRIMARY KEY AUTOINCREMENT ":"");
 			} else {
 				return " VARCHAR(50) ";
 			}
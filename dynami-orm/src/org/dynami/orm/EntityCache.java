@@ -0,0 +1,93 @@
+/*
+ * Copyright 2017 Alessandro Atria - a.atria@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dynami.orm;
+
+import org.dynami.orm.DAO.IEntity;
+
+/**
+ * Cache of entities marked with {@link IEntity#cache()}, one instance per entity class.
+ * Keys are the primary key value for single key entities, otherwise a composite key object with equals and hashCode defined over all the values.
+ * Implementations have to be thread safe.
+ *
+ * @author Alessandro Atria - a.atria@gmail.com
+ *
+ */
+public interface EntityCache {
+
+	Object get(Object key);
+
+	void put(Object key, Object value);
+
+	void remove(Object key);
+
+	void clear();
+
+	long size();
+
+	Stats stats();
+
+	/**
+	 * Cache of entities identified by a single integral primary key, looked up without boxing the key
+	 */
+	public interface OfLong extends EntityCache {
+
+		Object get(long key);
+
+		void put(long key, Object value);
+
+		void remove(long key);
+	}
+
+	/**
+	 * Creates the cache of an entity class, using its {@link IEntity} configuration
+	 */
+	@FunctionalInterface
+	public interface Factory {
+		EntityCache create(Class<?> clazz, IEntity config);
+	}
+
+	public static final class Stats {
+		private final long hits;
+		private final long misses;
+		private final long evictions;
+		private final long size;
+
+		public Stats(long hits, long misses, long evictions, long size) {
+			this.hits = hits;
+			this.misses = misses;
+			this.evictions = evictions;
+			this.size = size;
+		}
+
+		public long hits() { return hits; }
+
+		public long misses() { return misses; }
+
+		public long evictions() { return evictions; }
+
+		public long size() { return size; }
+
+		public double hitRate() {
+			long requests = hits + misses;
+			return (requests == 0)? 0 : (double)hits / requests;
+		}
+
+		@Override
+		public String toString() {
+			return "Stats [hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + ", size=" + size + "]";
+		}
+	}
+}
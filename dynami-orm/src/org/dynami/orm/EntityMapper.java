@@ -0,0 +1,62 @@
+/*
+ * Copyright 2017 Alessandro Atria - a.atria@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dynami.orm;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Reflection free mapper of an entity class, generated at build time by the Dynami-Orm-processor annotation processor
+ * as &lt;Entity&gt;_DynamiMapper in the package of the entity (nested class names joined by '_').
+ * When found, DAO uses it in place of reflection for the fields it lists; other fields and foreign key loaders are still resolved by reflection.
+ * Fields are referred to by their index in {@link #fields()}.
+ *
+ * @author Alessandro Atria - a.atria@gmail.com
+ *
+ */
+public interface EntityMapper<T> {
+
+	Class<T> entity();
+
+	/**
+	 * Names of the {@link DAO.IField} fields having both getter and setter
+	 */
+	String[] fields();
+
+	/**
+	 * @return new instance through the no-arg constructor, null if entity hasn't an accessible one
+	 */
+	T newInstance();
+
+	Object get(T entity, int field);
+
+	/**
+	 * Sets field, converting numbers to the field numeric type
+	 */
+	void set(T entity, int field, Object value);
+
+	/**
+	 * Binds field value to statement parameter idx, with the same conversions of reflective binding
+	 */
+	void bind(PreparedStatement pstmt, int idx, T entity, int field) throws SQLException;
+
+	/**
+	 * Sets field from column of current row
+	 * @return false if field type has no typed getter, so that column is read by reflection
+	 */
+	boolean read(T entity, int field, ResultSet res, int column) throws SQLException;
+}
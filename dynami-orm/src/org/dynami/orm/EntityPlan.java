@@ -0,0 +1,419 @@
+/*
+ * Copyright 2017 Alessandro Atria - a.atria@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dynami.orm;
+
+import java.lang.reflect.Constructor;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.dynami.orm.DAO.SqlDialect;
+
+/**
+ * Immutable statement plan of an entity class, built once at first use.
+ * It holds the SQL text of insert, update, delete and select by primary key statements
+ * together with the ordered list of accessors to bind, so that write and read-by-pk paths only bind values.
+ *
+ * @author Alessandro Atria - a.atria@gmail.com
+ *
+ */
+final class EntityPlan {
+	final Class<?> clazz;
+	final String table;
+	final Accessor[] fields;
+	final Accessor[] pk;
+	final Accessor[] insertFields;
+	/**
+	 * Foreign key fields
+	 */
+	final Accessor[] fks;
+	/**
+	 * Serial field valued by the database, null if entity hasn't one
+	 */
+	final Accessor serial;
+
+	final Statement select;
+	final Statement insert;
+	final Statement delete;
+	final Statement update;
+
+	private final String insertPrefix;
+	private final String insertRow;
+	private final String insertSelect;
+	private final String[] upsertClauses;
+	private final Statement[] upserts;
+	private final ConcurrentMap<BitSet, Statement> updates = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, RowMapper> mappers = new ConcurrentHashMap<>();
+	private volatile Constructor<?> constructor;
+	private final EntityMapper<Object> mapper;
+	
+	/**
+	 * Upper bound of cached row mappers, queries beyond it are mapped without caching
+	 */
+	private static final int MAX_MAPPERS = 256;
+
+	/**
+	 * SQL text and ordered bind list of a single statement
+	 */
+	static final class Statement {
+		final String sql;
+		final Accessor[] bind;
+		final int[] nullTypes;
+
+		Statement(String sql, Accessor[] bind) {
+			this.sql = sql;
+			this.bind = bind;
+			this.nullTypes = new int[bind.length];
+			for (int i = 0; i < bind.length; i++) {
+				nullTypes[i] = nullType(bind[i].type);
+			}
+		}
+
+		/**
+		 * Binds entity values starting from first parameter
+		 * @return next parameter index
+		 */
+		int bind(PreparedStatement pstmt, Object entity) throws Exception {
+			return bind(pstmt, entity, 1);
+		}
+
+		int bind(PreparedStatement pstmt, Object entity, int idx) throws Exception {
+			for (int i = 0; i < bind.length; i++) {
+				EntityPlan.bind(pstmt, idx++, bind[i], nullTypes[i], entity);
+			}
+			return idx;
+		}
+	}
+
+	EntityPlan(Class<?> clazz) {
+		this.clazz = clazz;
+		this.table = DAOReflect.getTableName(clazz);
+		this.fields = DAOReflect.accessors(clazz);
+		this.mapper = DAOReflect.mapper(clazz);
+
+		int pks = 0, inserts = 0, fks = 0;
+		Accessor serial = null;
+		for (int i = 0; i < fields.length; i++) {
+			if(fields[i].meta.pk()) pks++;
+			if(fields[i].isFk()) fks++;
+			if(!fields[i].meta.serial()) inserts++;
+			else if(serial == null) serial = fields[i];
+		}
+		this.serial = serial;
+		this.pk = new Accessor[pks];
+		this.insertFields = new Accessor[inserts];
+		this.fks = new Accessor[fks];
+		for (int i = 0, p = 0, n = 0, f = 0; i < fields.length; i++) {
+			if(fields[i].meta.pk()) pk[p++] = fields[i];
+			if(fields[i].isFk()) this.fks[f++] = fields[i];
+			if(!fields[i].meta.serial()) insertFields[n++] = fields[i];
+		}
+
+		StringBuilder where = new StringBuilder(" where 1 = 1 ");
+		for (int i = 0; i < pk.length; i++) {
+			where.append(" and ");
+			where.append(pk[i].name);
+			where.append(" = ? ");
+		}
+		this.select = new Statement("select * from "+table+where, pk);
+		this.delete = new Statement("delete from "+table+where, pk);
+
+		StringBuilder ins = new StringBuilder("insert into ");
+		StringBuilder values = new StringBuilder("( ");
+		ins.append(table);
+		ins.append(" ( ");
+		for (int i = 0; i < insertFields.length; i++) {
+			if(i > 0){
+				ins.append(", ");
+				values.append(", ");
+			}
+			ins.append(insertFields[i].name);
+			values.append(" ? ");
+		}
+		ins.append(" ) values ");
+		values.append(" ) ");
+		this.insertPrefix = ins.toString();
+		this.insertRow = values.toString();
+		this.insertSelect = insertPrefix.substring(0, insertPrefix.length() - "values ".length())+"select "+insertRow.substring(1, insertRow.length() - 2);
+		this.insert = new Statement(insertPrefix+insertRow, insertFields);
+		this.update = buildUpdate(new BitSet());
+
+		final SqlDialect[] dialects = SqlDialect.values();
+		this.upsertClauses = new String[dialects.length];
+		this.upserts = new Statement[dialects.length];
+		if(serial == null && pk.length > 0){
+			for (int i = 0; i < dialects.length; i++) {
+				upsertClauses[i] = buildUpsertClause(dialects[i]);
+				upserts[i] = new Statement(insert.sql+upsertClauses[i], insertFields);
+			}
+		}
+	}
+
+	/**
+	 * Insert statement updating the existing row on primary key conflict, binding the same values of insert.
+	 * @return null for entities with a serial field or without primary key
+	 */
+	Statement upsert(SqlDialect dialect) {
+		return upserts[dialect.ordinal()];
+	}
+
+	/**
+	 * Multi-row version of {@link #upsert(SqlDialect)}
+	 */
+	String upsert(int rows, SqlDialect dialect) {
+		return insert(rows)+upsertClauses[dialect.ordinal()];
+	}
+
+	/**
+	 * Insert statement taking values from a select of the insert parameters, to be followed by from/where clauses
+	 */
+	String insertSelect() {
+		return insertSelect;
+	}
+
+	private String buildUpsertClause(SqlDialect dialect) {
+		StringBuilder buffer = new StringBuilder();
+		boolean first = true;
+		if(dialect == SqlDialect.MySql){
+			buffer.append(" on duplicate key update ");
+			for (int i = 0; i < insertFields.length; i++) {
+				if(insertFields[i].meta.pk()) continue;
+				if(!first) buffer.append(", ");
+				buffer.append(insertFields[i].name).append(" = values(").append(insertFields[i].name).append(")");
+				first = false;
+			}
+			if(first){
+				buffer.append(pk[0].name).append(" = ").append(pk[0].name);
+			}
+		} else {
+			buffer.append(" on conflict ( ");
+			for (int i = 0; i < pk.length; i++) {
+				if(i > 0) buffer.append(", ");
+				buffer.append(pk[i].name);
+			}
+			buffer.append(" ) do ");
+			for (int i = 0; i < insertFields.length; i++) {
+				if(insertFields[i].meta.pk()) continue;
+				buffer.append(first? "update set " : ", ");
+				buffer.append(insertFields[i].name).append(" = excluded.").append(insertFields[i].name);
+				first = false;
+			}
+			if(first){
+				buffer.append("nothing");
+			}
+		}
+		return buffer.toString();
+	}
+
+	/**
+	 * Update statement excluding the passed column names, cached by exclude set
+	 */
+	Statement update(String[] exclude) {
+		if(exclude == null || exclude.length == 0) return update;
+		BitSet key = new BitSet(fields.length);
+		for (int i = 0; i < fields.length; i++) {
+			for (int j = 0; j < exclude.length; j++) {
+				if(fields[i].name.equals(exclude[j])){
+					key.set(i);
+					break;
+				}
+			}
+		}
+		if(key.isEmpty()) return update;
+		Statement stmt = updates.get(key);
+		if(stmt == null){
+			stmt = buildUpdate(key);
+			Statement prev = updates.putIfAbsent(key, stmt);
+			if(prev != null) stmt = prev;
+		}
+		return stmt;
+	}
+
+	/**
+	 * Row mapper of query result, cached by SQL text and rebuilt if result columns changed
+	 * @param sql query text
+	 * @param fetch foreign keys joined by query
+	 */
+	RowMapper mapper(String sql, List<Fetch> fetch, ResultSet res) throws Exception {
+		final ResultSetMetaData md = res.getMetaData();
+		RowMapper mapper = mappers.get(sql);
+		if(mapper == null || !mapper.matches(md)){
+			final boolean cached = mapper != null;
+			mapper = new RowMapper(this, fetch, md);
+			if(cached || mappers.size() < MAX_MAPPERS){
+				mappers.put(sql, mapper);
+			}
+		}
+		return mapper;
+	}
+	
+	/**
+	 * New instance of entity through its no-arg constructor, called by the generated mapper if any
+	 */
+	Object newInstance() throws Exception {
+		if(mapper != null){
+			final Object entity = mapper.newInstance();
+			if(entity != null) return entity;
+		}
+		Constructor<?> c = constructor;
+		if(c == null){
+			constructor = c = clazz.getDeclaredConstructor();
+		}
+		return c.newInstance();
+	}
+	
+	/**
+	 * Cache key of primary key values passed in the same order as defined in class.
+	 * Numeric values are converted to the field type, so that 1 and 1L identify the same entity.
+	 */
+	Object key(Object[] values) {
+		if(pk.length == 1){
+			return Accessor.convert(pk[0].type, values[0]);
+		}
+		Object[] key = new Object[pk.length];
+		for (int i = 0; i < pk.length; i++) {
+			key[i] = Accessor.convert(pk[i].type, values[i]);
+		}
+		return new Key(key);
+	}
+
+	/**
+	 * Cache key of entity primary key values
+	 */
+	Object key(Object entity) throws Exception {
+		if(pk.length == 1){
+			return pk[0].get(entity);
+		}
+		Object[] key = new Object[pk.length];
+		for (int i = 0; i < pk.length; i++) {
+			key[i] = pk[i].get(entity);
+		}
+		return new Key(key);
+	}
+
+	/**
+	 * Composite primary key, equal to another key with equal values in the same order
+	 */
+	static final class Key {
+		private final Object[] values;
+		private final int hash;
+
+		Key(Object[] values) {
+			this.values = values;
+			this.hash = Arrays.hashCode(values);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Key && hash == ((Key)obj).hash && Arrays.equals(values, ((Key)obj).values);
+		}
+
+		@Override
+		public String toString() {
+			return Arrays.toString(values);
+		}
+	}
+
+	/**
+	 * Multi-row insert statement text, binding {@link #insertFields} once per row
+	 */
+	String insert(int rows) {
+		StringBuilder buffer = new StringBuilder(insertPrefix.length() + rows * (insertRow.length() + 2));
+		buffer.append(insertPrefix);
+		for (int i = 0; i < rows; i++) {
+			if(i > 0) buffer.append(", ");
+			buffer.append(insertRow);
+		}
+		return buffer.toString();
+	}
+
+	private Statement buildUpdate(BitSet exclude) {
+		StringBuilder buffer = new StringBuilder("update ");
+		buffer.append(table);
+		buffer.append(" set ");
+		Accessor[] bind = new Accessor[fields.length - exclude.cardinality() + pk.length];
+		int idx = 0;
+		for (int i = 0; i < fields.length; i++) {
+			if(!exclude.get(i)){
+				if(idx > 0)
+					buffer.append(", ");
+				buffer.append(fields[i].name);
+				buffer.append(" = ? ");
+				bind[idx++] = fields[i];
+			}
+		}
+		buffer.append(" where 1 = 1 ");
+		for (int i = 0; i < pk.length; i++) {
+			buffer.append(" and ");
+			buffer.append(pk[i].name);
+			buffer.append(" = ? ");
+			bind[idx++] = pk[i];
+		}
+		return new Statement(buffer.toString(), bind);
+	}
+
+	/**
+	 * Binds a single entity value, using primitive setters where available and typed nulls otherwise
+	 */
+	static void bind(PreparedStatement pstmt, int idx, Accessor field, int nullType, Object entity) throws Exception {
+		final Class<?> type = field.type;
+		if(field.mapper != null){
+			field.mapper.bind(pstmt, idx, entity, field.mapped);
+		} else if(type.equals(double.class)){
+			pstmt.setDouble(idx, field.getDouble(entity));
+		} else if(type.equals(long.class)){
+			pstmt.setLong(idx, field.getLong(entity));
+		} else if(type.equals(int.class)){
+			pstmt.setInt(idx, field.getInt(entity));
+		} else if(type.equals(boolean.class)){
+			pstmt.setInt(idx, field.getBoolean(entity)?DAOReflect.TRUE:DAOReflect.FALSE);
+		} else {
+			Object obj = field.get(entity);
+			if(obj == null){
+				pstmt.setNull(idx, nullType);
+			} else if(obj instanceof Boolean){
+				pstmt.setObject(idx, ((Boolean)obj)?DAOReflect.TRUE:DAOReflect.FALSE);
+			} else {
+				pstmt.setObject(idx, obj);
+			}
+		}
+	}
+
+	static int nullType(Class<?> type) {
+		if(type.equals(String.class)){
+			return Types.CHAR;
+		} else if(type.equals(java.util.Date.class)){
+			return Types.DATE;
+		} else if(type.equals(double.class)){
+			return Types.DOUBLE;
+		} else if(type.equals(boolean.class)){
+			return Types.BOOLEAN;
+		} else {
+			return Types.NUMERIC;
+		}
+	}
+}
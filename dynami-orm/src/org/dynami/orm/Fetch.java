@@ -0,0 +1,45 @@
+/*
+ * Copyright 2017 Alessandro Atria - a.atria@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dynami.orm;
+
+/**
+ * Foreign key loaded with a left join, columns of referenced entity are selected with "j&lt;n&gt;_" prefixed labels
+ *
+ * @author Alessandro Atria - a.atria@gmail.com
+ *
+ */
+class Fetch {
+	final Accessor fk;
+	final EntityPlan target;
+	final String alias;
+	final String[] labels;
+	final String pkLabel;
+	
+	Fetch(Accessor fk, int n){
+		this.fk = fk;
+		this.target = DAOReflect.plan(DAOReflect.getEntity(fk.meta.fk()));
+		this.alias = "t"+n;
+		this.labels = new String[target.fields.length];
+		String pkLabel = null;
+		for (int i = 0; i < labels.length; i++) {
+			labels[i] = "j"+n+"_"+target.fields[i].name;
+			if(target.fields[i] == target.pk[0]){
+				pkLabel = labels[i];
+			}
+		}
+		this.pkLabel = pkLabel;
+	}
+}
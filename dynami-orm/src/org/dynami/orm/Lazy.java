@@ -0,0 +1,81 @@
+/*
+ * Copyright 2017 Alessandro Atria - a.atria@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dynami.orm;
+
+/**
+ * Reference to an entity loaded on first access, passed to load&lt;ClassName&gt;(Lazy) methods of foreign key fields
+ * marked as {@link DAO.IField#lazy()} or selected with {@link Criteria#lazy(String...)}.
+ * Pending references of many entities can be loaded together with {@link DAO#resolve(java.util.Collection)}.
+ *
+ * @author Alessandro Atria - a.atria@gmail.com
+ *
+ */
+public final class Lazy<T> {
+	private final Class<T> clazz;
+	private final Object key;
+	private volatile boolean resolved;
+	private T value;
+	
+	@SuppressWarnings("unchecked")
+	Lazy(Class<?> clazz, Object key) {
+		this.clazz = (Class<T>)clazz;
+		this.key = key;
+	}
+	
+	static Lazy<?> of(Class<?> clazz, Object key, Object value) {
+		Lazy<?> lazy = new Lazy<Object>(clazz, key);
+		lazy.resolve(value);
+		return lazy;
+	}
+	
+	/**
+	 * Referenced entity, loaded with {@link DAO#load(Class, Object...)} at first call
+	 * @return referenced entity, null if it doesn't exist
+	 * @throws Exception
+	 */
+	public T get() throws Exception {
+		if(!resolved){
+			resolve((key == null)? null : DAO.$.load(clazz, key));
+		}
+		return value;
+	}
+	
+	public boolean isResolved() {
+		return resolved;
+	}
+	
+	/**
+	 * Primary key value of referenced entity
+	 */
+	public Object key() {
+		return key;
+	}
+	
+	public Class<T> type() {
+		return clazz;
+	}
+	
+	@SuppressWarnings("unchecked")
+	void resolve(Object value) {
+		this.value = (T)value;
+		this.resolved = true;
+	}
+	
+	@Override
+	public String toString() {
+		return resolved? String.valueOf(value) : "Lazy["+clazz.getSimpleName()+", "+key+"]";
+	}
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2017 Alessandro Atria - a.atria@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dynami.orm;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * {@link EntityCache} of entities with a single long, int or short primary key.
+ * Keys are stored in a primitive open addressing table (linear probing, backward shift deletion) sized twice the maximum size,
+ * so that a hit neither boxes the key nor allocates. Reads are optimistic and fall back on a read lock only when racing with a writer.
+ * When full, the entry to evict is chosen with the CLOCK (second chance) policy, approximating least recently used.
+ *
+ * @author Alessandro Atria - a.atria@gmail.com
+ *
+ */
+public class LongKeyEntityCache implements EntityCache.OfLong {
+	private final StampedLock lock = new StampedLock();
+	private final long[] keys;
+	private final Object[] values;
+	private final byte[] referenced;
+	private final long[] expires;
+	private final int mask;
+	private final int maxSize;
+	private final long ttl;
+	private int size;
+	private int hand;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	public LongKeyEntityCache(int maxSize) {
+		this(maxSize, 0);
+	}
+
+	/**
+	 * @param maxSize maximum number of cached entities
+	 * @param ttlMillis time to live of entries in milliseconds, 0 for no expiration
+	 */
+	public LongKeyEntityCache(int maxSize, long ttlMillis) {
+		if(maxSize < 1) throw new IllegalArgumentException("Cache size must be positive");
+		if(maxSize > (1 << 29)) throw new IllegalArgumentException("Cache size too large");
+		int capacity = Integer.highestOneBit(maxSize * 2 - 1) << 1;
+		this.keys = new long[capacity];
+		this.values = new Object[capacity];
+		this.referenced = new byte[capacity];
+		this.ttl = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+		this.expires = (ttl > 0)? new long[capacity] : null;
+		this.mask = capacity - 1;
+		this.maxSize = maxSize;
+	}
+
+	@Override
+	public Object get(long key) {
+		long stamp = lock.tryOptimisticRead();
+		int slot = find(key);
+		Object value = (slot < 0)? null : values[slot];
+		// expiry is read before validation, so that it belongs to the same entry as value
+		long expiry = (slot < 0 || expires == null)? 0 : expires[slot];
+		if(!lock.validate(stamp)){
+			stamp = lock.readLock();
+			try {
+				slot = find(key);
+				value = (slot < 0)? null : values[slot];
+				expiry = (slot < 0 || expires == null)? 0 : expires[slot];
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+		if(value != null && expires != null && System.nanoTime() - expiry > 0){
+			expire(key);
+			value = null;
+		}
+		if(value == null){
+			misses.increment();
+		} else {
+			// benign race, it's only a hint for eviction
+			referenced[slot] = 1;
+			hits.increment();
+		}
+		return value;
+	}
+
+	@Override
+	public void put(long key, Object value) {
+		if(value == null) {
+			remove(key);
+			return;
+		}
+		final long stamp = lock.writeLock();
+		try {
+			int slot = find(key);
+			if(slot < 0){
+				if(size >= maxSize){
+					evict();
+				}
+				slot = spread(key) & mask;
+				while(values[slot] != null){
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = key;
+				size++;
+			}
+			values[slot] = value;
+			referenced[slot] = 0;
+			if(expires != null){
+				expires[slot] = System.nanoTime() + ttl;
+			}
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	@Override
+	public void remove(long key) {
+		final long stamp = lock.writeLock();
+		try {
+			int slot = find(key);
+			if(slot >= 0){
+				delete(slot);
+			}
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	@Override
+	public Object get(Object key) {
+		if(key instanceof Number){
+			return get(((Number)key).longValue());
+		}
+		misses.increment();
+		return null;
+	}
+
+	@Override
+	public void put(Object key, Object value) {
+		if(key instanceof Number){
+			put(((Number)key).longValue(), value);
+		}
+	}
+
+	@Override
+	public void remove(Object key) {
+		if(key instanceof Number){
+			remove(((Number)key).longValue());
+		}
+	}
+
+	@Override
+	public void clear() {
+		final long stamp = lock.writeLock();
+		try {
+			Arrays.fill(values, null);
+			Arrays.fill(referenced, (byte)0);
+			size = 0;
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	@Override
+	public long size() {
+		final long stamp = lock.readLock();
+		try {
+			return size;
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	@Override
+	public Stats stats() {
+		return new Stats(hits.sum(), misses.sum(), evictions.sum(), size());
+	}
+
+	/**
+	 * Removes key if still expired, it may have been put again since read
+	 */
+	private void expire(long key) {
+		final long stamp = lock.writeLock();
+		try {
+			int slot = find(key);
+			if(slot >= 0 && System.nanoTime() - expires[slot] > 0){
+				delete(slot);
+			}
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Slot of key, -1 if missing. Probing is bounded so that an optimistic read racing with a writer always ends.
+	 */
+	private int find(long key) {
+		int slot = spread(key) & mask;
+		for (int i = 0; i <= mask; i++) {
+			if(values[slot] == null) return -1;
+			if(keys[slot] == key) return slot;
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	private void evict() {
+		while(true){
+			hand = (hand + 1) & mask;
+			if(values[hand] != null){
+				if(referenced[hand] != 0){
+					referenced[hand] = 0;
+				} else {
+					delete(hand);
+					evictions.increment();
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes slot, shifting back following entries of the same probe sequence
+	 */
+	private void delete(int slot) {
+		int hole = slot;
+		int next = (hole + 1) & mask;
+		while(values[next] != null){
+			final int home = spread(keys[next]) & mask;
+			// moves entry if its home slot isn't cyclically in (hole, next]
+			if(((next - home) & mask) >= ((next - hole) & mask)){
+				keys[hole] = keys[next];
+				values[hole] = values[next];
+				referenced[hole] = referenced[next];
+				if(expires != null) expires[hole] = expires[next];
+				hole = next;
+			}
+			next = (next + 1) & mask;
+		}
+		values[hole] = null;
+		referenced[hole] = 0;
+		size--;
+	}
+
+	private static int spread(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int)(h ^ (h >>> 32));
+	}
+}
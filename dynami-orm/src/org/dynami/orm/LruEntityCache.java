@@ -0,0 +1,176 @@
+/*
+ * Copyright 2017 Alessandro Atria - a.atria@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dynami.orm;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Default {@link EntityCache}: size bounded, least recently used entries are evicted first.
+ * Entries are spread over independently locked segments to reduce contention, each segment holding its share of maximum size.
+ * An optional time to live expires entries on access.
+ *
+ * @author Alessandro Atria - a.atria@gmail.com
+ *
+ */
+public class LruEntityCache implements EntityCache {
+	private static final int MAX_SEGMENTS = 16;
+
+	private final Segment[] segments;
+	private final long ttl;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	public LruEntityCache(int maxSize) {
+		this(maxSize, 0);
+	}
+
+	/**
+	 * @param maxSize maximum number of cached entities
+	 * @param ttlMillis time to live of entries in milliseconds, 0 for no expiration
+	 */
+	public LruEntityCache(int maxSize, long ttlMillis) {
+		if(maxSize < 1) throw new IllegalArgumentException("Cache size must be positive");
+		int count = 1;
+		while(count < MAX_SEGMENTS && count * 2 <= maxSize) count *= 2;
+		this.segments = new Segment[count];
+		for (int i = 0; i < count; i++) {
+			segments[i] = new Segment(maxSize / count + ((i < maxSize % count)?1:0));
+		}
+		this.ttl = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+	}
+
+	@Override
+	public Object get(Object key) {
+		final Segment segment = segment(key);
+		Object value;
+		segment.lock.lock();
+		try {
+			value = segment.get(key);
+			if(value != null && ttl > 0){
+				Expiring e = (Expiring)value;
+				if(System.nanoTime() - e.expires > 0){
+					segment.remove(key);
+					value = null;
+				} else {
+					value = e.value;
+				}
+			}
+		} finally {
+			segment.lock.unlock();
+		}
+		if(value == null){
+			misses.increment();
+		} else {
+			hits.increment();
+		}
+		return value;
+	}
+
+	@Override
+	public void put(Object key, Object value) {
+		final Segment segment = segment(key);
+		final Object entry = (ttl > 0)? new Expiring(value, System.nanoTime() + ttl) : value;
+		segment.lock.lock();
+		try {
+			segment.put(key, entry);
+		} finally {
+			segment.lock.unlock();
+		}
+	}
+
+	@Override
+	public void remove(Object key) {
+		final Segment segment = segment(key);
+		segment.lock.lock();
+		try {
+			segment.remove(key);
+		} finally {
+			segment.lock.unlock();
+		}
+	}
+
+	@Override
+	public void clear() {
+		for(Segment segment : segments){
+			segment.lock.lock();
+			try {
+				segment.clear();
+			} finally {
+				segment.lock.unlock();
+			}
+		}
+	}
+
+	@Override
+	public long size() {
+		long size = 0;
+		for(Segment segment : segments){
+			segment.lock.lock();
+			try {
+				size += segment.size();
+			} finally {
+				segment.lock.unlock();
+			}
+		}
+		return size;
+	}
+
+	@Override
+	public Stats stats() {
+		return new Stats(hits.sum(), misses.sum(), evictions.sum(), size());
+	}
+
+	private Segment segment(Object key) {
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		return segments[h & (segments.length - 1)];
+	}
+
+	private static final class Expiring {
+		final Object value;
+		final long expires;
+
+		Expiring(Object value, long expires) {
+			this.value = value;
+			this.expires = expires;
+		}
+	}
+
+	private final class Segment extends LinkedHashMap<Object, Object> {
+		private static final long serialVersionUID = 1L;
+		final ReentrantLock lock = new ReentrantLock();
+		final int capacity;
+
+		Segment(int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Object, Object> eldest) {
+			if(size() > capacity){
+				evictions.increment();
+				return true;
+			}
+			return false;
+		}
+	}
+}
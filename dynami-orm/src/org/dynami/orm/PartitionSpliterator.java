@@ -0,0 +1,94 @@
+/*
+ * Copyright 2017 Alessandro Atria - a.atria@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dynami.orm;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Spliterator over key ranges of a partitioned scan. Splitting hands half of the remaining ranges to another worker,
+ * each range is read through its own query, opened when the previous range is exhausted.
+ *
+ * @author Alessandro Atria - a.atria@gmail.com
+ *
+ */
+final class PartitionSpliterator<T> implements Spliterator<T> {
+
+	/**
+	 * Opens query of rows with key between bounds, both inclusive
+	 */
+	@FunctionalInterface
+	interface Opener<T> {
+		Spliterator<T> open(long from, long to) throws Exception;
+	}
+
+	private final long[][] ranges;
+	private final Opener<T> opener;
+	private int from;
+	private int to;
+	private Spliterator<T> current;
+
+	PartitionSpliterator(long[][] ranges, int from, int to, Opener<T> opener) {
+		this.ranges = ranges;
+		this.from = from;
+		this.to = to;
+		this.opener = opener;
+	}
+
+	@Override
+	public boolean tryAdvance(Consumer<? super T> action) {
+		while(true){
+			if(current == null){
+				if(from >= to){
+					return false;
+				}
+				try {
+					current = opener.open(ranges[from][0], ranges[from][1]);
+				} catch (RuntimeException e) {
+					throw e;
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+				from++;
+			}
+			if(current.tryAdvance(action)){
+				return true;
+			}
+			current = null;
+		}
+	}
+
+	@Override
+	public Spliterator<T> trySplit() {
+		if(to - from < 2){
+			return null;
+		}
+		final int mid = (from + to) >>> 1;
+		final PartitionSpliterator<T> prefix = new PartitionSpliterator<T>(ranges, from, mid, opener);
+		from = mid;
+		return prefix;
+	}
+
+	@Override
+	public long estimateSize() {
+		return Long.MAX_VALUE;
+	}
+
+	@Override
+	public int characteristics() {
+		return Spliterator.NONNULL;
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2017 Alessandro Atria - a.atria@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dynami.orm;
+
+import java.sql.ResultSet;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Spliterator pulling rows from an open result set, one row per advance.
+ * Resources are released once, when rows are exhausted, on error or on close.
+ *
+ * @author Alessandro Atria - a.atria@gmail.com
+ *
+ */
+final class ResultSetSpliterator<T> extends Spliterators.AbstractSpliterator<T> implements AutoCloseable {
+	
+	/**
+	 * Reads current row of result set
+	 */
+	@FunctionalInterface
+	interface Row<T> {
+		T read(ResultSet res) throws Exception;
+	}
+	
+	private final ResultSet res;
+	private final Row<T> row;
+	private final Runnable release;
+	private final AtomicBoolean closed = new AtomicBoolean();
+	
+	ResultSetSpliterator(ResultSet res, Row<T> row, Runnable release) {
+		super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+		this.res = res;
+		this.row = row;
+		this.release = release;
+	}
+	
+	@Override
+	public boolean tryAdvance(Consumer<? super T> action) {
+		if(closed.get()){
+			return false;
+		}
+		try {
+			if(!res.next()){
+				close();
+				return false;
+			}
+			action.accept(row.read(res));
+			return true;
+		} catch (RuntimeException e) {
+			close();
+			throw e;
+		} catch (Exception e) {
+			close();
+			throw new RuntimeException(e);
+		}
+	}
+	
+	@Override
+	public void close() {
+		if(closed.compareAndSet(false, true)){
+			release.run();
+		}
+	}
+}
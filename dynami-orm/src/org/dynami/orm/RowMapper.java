@@ -0,0 +1,214 @@
+/*
+ * Copyright 2017 Alessandro Atria - a.atria@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dynami.orm;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Mapping of result set columns to entity fields, resolved once per query shape.
+ * Columns are read by index with the getter matching the field type, boxed numbers and booleans with getObject converted to the field type;
+ * fields without a column are left untouched and columns without a field are ignored.
+ * Entities joined with {@link Criteria#fetch(String...)} are mapped by {@link #children}, in the same order.
+ *
+ * @author Alessandro Atria - a.atria@gmail.com
+ *
+ */
+final class RowMapper {
+	private static final int STRING = 0;
+	private static final int DATE = 1;
+	private static final int DOUBLE = 2;
+	private static final int FLOAT = 3;
+	private static final int BOOLEAN = 4;
+	private static final int INT = 5;
+	private static final int SHORT = 6;
+	private static final int LONG = 7;
+	private static final int BOXED = 8;
+	private static final int OTHER = 9;
+
+	private final String[] labels;
+	private final Accessor[] targets;
+	private final int[] columns;
+	private final int[] kinds;
+	/**
+	 * Column of primary key, 0 if not selected
+	 */
+	private final int pkColumn;
+	final RowMapper[] children;
+
+	/**
+	 * @param plan plan of selected entity
+	 * @param fetch foreign keys joined by query
+	 * @param md metadata of query result
+	 */
+	RowMapper(EntityPlan plan, List<Fetch> fetch, ResultSetMetaData md) throws Exception {
+		this(plan, names(plan.fields), labels(md), fetch);
+	}
+
+	private RowMapper(EntityPlan plan, String[] names, String[] labels, List<Fetch> fetch) {
+		this.labels = labels;
+		int mapped = 0;
+		final int[] index = new int[names.length];
+		for (int i = 0; i < names.length; i++) {
+			index[i] = column(labels, names[i]);
+			if(index[i] > 0) mapped++;
+		}
+		this.targets = new Accessor[mapped];
+		this.columns = new int[mapped];
+		this.kinds = new int[mapped];
+		int pkColumn = 0;
+		for (int i = 0, n = 0; i < names.length; i++) {
+			if(index[i] > 0){
+				targets[n] = plan.fields[i];
+				columns[n] = index[i];
+				kinds[n] = kind(plan.fields[i].type);
+				n++;
+				if(plan.pk.length > 0 && plan.fields[i] == plan.pk[0]){
+					pkColumn = index[i];
+				}
+			}
+		}
+		this.pkColumn = pkColumn;
+		this.children = new RowMapper[fetch.size()];
+		for (int i = 0; i < children.length; i++) {
+			children[i] = new RowMapper(fetch.get(i).target, fetch.get(i).labels, labels, Collections.<Fetch>emptyList());
+		}
+	}
+
+	/**
+	 * True if result set has the same columns this mapper has been built for
+	 */
+	boolean matches(ResultSetMetaData md) throws Exception {
+		if(md.getColumnCount() != labels.length) return false;
+		for (int i = 0; i < labels.length; i++) {
+			if(!labels[i].equals(md.getColumnLabel(i+1))) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * True if primary key column of current row is null, as for entities not matched by a left join
+	 */
+	boolean isNull(ResultSet res) throws Exception {
+		return pkColumn > 0 && res.getObject(pkColumn) == null;
+	}
+
+	/**
+	 * Primary key of current row, as returned by the driver, null if not selected
+	 */
+	Object key(ResultSet res) throws Exception {
+		return (pkColumn > 0)? res.getObject(pkColumn) : null;
+	}
+
+	/**
+	 * Values entity fields from current row
+	 */
+	void map(Object entity, ResultSet res) throws Exception {
+		for (int i = 0; i < targets.length; i++) {
+			final Accessor field = targets[i];
+			final int column = columns[i];
+			if(field.mapper != null && field.mapper.read(entity, field.mapped, res, column)){
+				continue;
+			}
+			switch (kinds[i]) {
+			case STRING:
+				field.set(entity, res.getString(column));
+				break;
+			case DATE:
+				field.set(entity, res.getDate(column));
+				break;
+			case DOUBLE:
+				field.setDouble(entity, res.getDouble(column));
+				break;
+			case FLOAT:
+				field.setFloat(entity, res.getFloat(column));
+				break;
+			case BOOLEAN:
+				field.setBoolean(entity, res.getBoolean(column));
+				break;
+			case INT:
+				field.setInt(entity, res.getInt(column));
+				break;
+			case SHORT:
+				field.setShort(entity, res.getShort(column));
+				break;
+			case LONG:
+				field.setLong(entity, res.getLong(column));
+				break;
+			case BOXED:
+				// null preserved, numbers converted to the field type
+				field.set(entity, res.getObject(column));
+				break;
+			default:
+				field.set(entity, res.getString(column));
+				break;
+			}
+		}
+	}
+
+	private static int kind(Class<?> type) {
+		if(type.equals(String.class)){
+			return STRING;
+		} else if(type.equals(java.util.Date.class)){
+			return DATE;
+		} else if(type.equals(double.class)){
+			return DOUBLE;
+		} else if(type.equals(float.class)){
+			return FLOAT;
+		} else if(type.equals(boolean.class)){
+			return BOOLEAN;
+		} else if(type.equals(int.class)){
+			return INT;
+		} else if(type.equals(short.class)){
+			return SHORT;
+		} else if(type.equals(long.class)){
+			return LONG;
+		} else if(type.equals(Long.class) || type.equals(Integer.class) || type.equals(Short.class)
+				|| type.equals(Double.class) || type.equals(Float.class) || type.equals(Boolean.class)){
+			return BOXED;
+		} else {
+			return OTHER;
+		}
+	}
+
+	/**
+	 * First column labelled as name, ignoring case as drivers may change it, 0 if missing
+	 */
+	private static int column(String[] labels, String name) {
+		for (int i = 0; i < labels.length; i++) {
+			if(labels[i].equalsIgnoreCase(name)) return i+1;
+		}
+		return 0;
+	}
+
+	private static String[] names(Accessor[] fields) {
+		String[] names = new String[fields.length];
+		for (int i = 0; i < fields.length; i++) {
+			names[i] = fields[i].name;
+		}
+		return names;
+	}
+
+	private static String[] labels(ResultSetMetaData md) throws Exception {
+		String[] labels = new String[md.getColumnCount()];
+		for (int i = 0; i < labels.length; i++) {
+			labels[i] = md.getColumnLabel(i+1);
+		}
+		return labels;
+	}
+}
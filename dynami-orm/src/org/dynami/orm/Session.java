@@ -0,0 +1,147 @@
+/*
+ * Copyright 2017 Alessandro Atria - a.atria@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dynami.orm;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Connection pinned to the thread that opened it by {@link DAO#session()}: DAO methods called by that thread
+ * run on this connection, with autocommit disabled, until the session is closed.
+ * Work not committed is rolled back on close.
+ * Tables of entities first used within the session are created on another connection of the data source,
+ * except on Sqlite and when the data source has a single connection: there they are part of the session transaction
+ * and, if it rolls back, entities are registered again at next use.
+ *
+ * @author Alessandro Atria - a.atria@gmail.com
+ *
+ */
+public final class Session implements AutoCloseable {
+	private final DAO dao;
+	private final Connection conn;
+	private final boolean autoCommit;
+	private final int isolation;
+	private final List<Class<?>> registered = new ArrayList<>();
+	private boolean pending;
+	private boolean closed;
+
+	/**
+	 * Block of DAO calls run by {@link DAO#inTransaction(Work)}
+	 */
+	@FunctionalInterface
+	public interface Work {
+		void run(Session session) throws Exception;
+	}
+
+	/**
+	 * Block of DAO calls returning a result, run by {@link DAO#callInTransaction(Transaction)}
+	 */
+	@FunctionalInterface
+	public interface Transaction<T> {
+		T run(Session session) throws Exception;
+	}
+
+	/**
+	 * @param isolation one of Connection.TRANSACTION_* levels, -1 for the connection default
+	 */
+	Session(DAO dao, Connection conn, int isolation) throws Exception {
+		this.dao = dao;
+		this.conn = conn;
+		this.autoCommit = conn.getAutoCommit();
+		this.isolation = conn.getTransactionIsolation();
+		if(isolation >= 0 && isolation != this.isolation){
+			conn.setTransactionIsolation(isolation);
+		}
+		if(autoCommit){
+			conn.setAutoCommit(false);
+		}
+	}
+
+	public Connection connection() {
+		return conn;
+	}
+
+	/**
+	 * Marks that DAO calls used the connection since last commit or rollback
+	 */
+	Connection use() {
+		pending = true;
+		return conn;
+	}
+
+	/**
+	 * Marks that entity table has been created on the session connection
+	 */
+	void registered(Class<?> entity) {
+		registered.add(entity);
+	}
+
+	public void commit() throws SQLException {
+		checkOpen();
+		conn.commit();
+		pending = false;
+		registered.clear();
+	}
+
+	/**
+	 * Rolls back work done since last commit. Entity caches are cleared, since they may hold rolled back changes,
+	 * and entities whose tables have been created since are registered again at next use.
+	 */
+	public void rollback() throws SQLException {
+		checkOpen();
+		conn.rollback();
+		if(pending){
+			dao.clearCaches();
+			pending = false;
+		}
+		if(!registered.isEmpty()){
+			dao.unregister(registered);
+			registered.clear();
+		}
+	}
+
+	public boolean isOpen() {
+		return !closed;
+	}
+
+	/**
+	 * Rolls back uncommitted work, restores connection settings and releases it
+	 */
+	@Override
+	public void close() throws SQLException {
+		if(closed) return;
+		try {
+			if(pending){
+				rollback();
+			}
+			if(conn.getTransactionIsolation() != isolation){
+				conn.setTransactionIsolation(isolation);
+			}
+			if(autoCommit){
+				conn.setAutoCommit(true);
+			}
+		} finally {
+			closed = true;
+			dao.closed(this);
+		}
+	}
+
+	private void checkOpen() {
+		if(closed) throw new IllegalStateException("Session closed");
+	}
+}
@@ -0,0 +1,492 @@
+/*
+ * Copyright 2017 Alessandro Atria - a.atria@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dynami.orm;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.dynami.orm.DAO.SqlDialect;
+
+class SqlUtils {
+	static PreparedStatement sqlSelect(Connection con, Object entity) throws Exception {
+		EntityPlan.Statement select = DAOReflect.plan(entity.getClass()).select;
+		PreparedStatement pstmt = DAO.$.acquire(con, select.sql);
+		select.bind(pstmt, entity);
+		return pstmt;
+	}
+	
+	static PreparedStatement sqlUpdate(Connection con, Object entity, String[] exclude) throws Exception {
+		EntityPlan.Statement update = DAOReflect.plan(entity.getClass()).update(exclude);
+		PreparedStatement pstmt = DAO.$.acquire(con, update.sql);
+		update.bind(pstmt, entity);
+		return pstmt;
+	}
+	
+	static PreparedStatement sqlUpdate(Connection con, Object entity) throws Exception {
+		return sqlUpdate(con, entity, null);
+	}
+	
+	static PreparedStatement sqlDelete(Connection con, Object entity) throws Exception {
+		EntityPlan.Statement delete = DAOReflect.plan(entity.getClass()).delete;
+		PreparedStatement pstmt = DAO.$.acquire(con, delete.sql);
+		delete.bind(pstmt, entity);
+		return pstmt;
+	}
+	
+	static PreparedStatement sqlInsert(Connection con, Object entity, SqlDialect dialect) throws Exception {
+		EntityPlan plan = DAOReflect.plan(entity.getClass());
+		PreparedStatement pstmt = prepareInsert(con, plan.insert.sql, plan, dialect);
+		plan.insert.bind(pstmt, entity);
+		return pstmt;
+	}
+	
+	/**
+	 * Prepares an insert statement asking the driver for the serial field value, if any.
+	 * PostgreSql driver turns the column name into a "returning" clause.
+	 */
+	static PreparedStatement prepareInsert(Connection con, String sql, EntityPlan plan, SqlDialect dialect) throws Exception {
+		if(plan.serial == null){
+			return DAO.$.acquire(con, sql);
+		} else if(dialect == SqlDialect.PostgreSql){
+			return con.prepareStatement(sql, new String[]{plan.serial.name});
+		} else {
+			return con.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+		}
+	}
+	
+	static void generatedKeys(PreparedStatement pstmt, EntityPlan plan, Object entity) throws Exception {
+		generatedKeys(pstmt, plan, Collections.singletonList(entity), 0, 1);
+	}
+	
+	/**
+	 * Writes generated keys back to entities from index to index (exclusive), in the same order they were inserted
+	 */
+	static void generatedKeys(PreparedStatement pstmt, EntityPlan plan, List<?> entities, int from, int to) throws Exception {
+		ResultSet keys = pstmt.getGeneratedKeys();
+		try {
+			final Accessor serial = plan.serial;
+			for (int i = from; i < to && keys.next(); i++) {
+				if(serial.type.equals(long.class)){
+					serial.setLong(entities.get(i), keys.getLong(1));
+				} else if(serial.type.equals(int.class)){
+					serial.setInt(entities.get(i), keys.getInt(1));
+				} else if(serial.type.equals(short.class)){
+					serial.set(entities.get(i), keys.getShort(1));
+				} else {
+					serial.set(entities.get(i), keys.getObject(1));
+				}
+			}
+		} finally {
+			keys.close();
+		}
+	}
+	
+	static <T> PreparedStatement sqlDeleteByCriteria(Connection con, Criteria<T> criteria) throws Exception {
+		Object entity = criteria.getIEntity();
+		StringBuilder buffer = new StringBuilder("delete from ");
+		buffer.append(DAOReflect.getTableName(entity));
+		List<Object> deleteData = new ArrayList<Object>();
+		where(buffer, criteria, null, deleteData);
+		return prepare(con, buffer.toString(), deleteData);
+	}
+	
+	/**
+	 * Appends where clause of criteria conditions
+	 * @param alias table alias qualifying columns, null for none
+	 * @param values filled with values to bind, in order
+	 */
+	static void where(StringBuilder buffer, Criteria<?> criteria, String alias, List<Object> values) {
+		buffer.append(" where 1 = 1 ");
+		for(Where where : criteria.getCriteria()){
+			buffer.append(where.toString(alias));
+			if(where.operator != Where.IS_NULL && where.operator != Where.IS_NOT_NULL){
+				Collections.addAll(values, where.values);
+			}
+		}
+	}
+	
+	/**
+	 * Select of an aggregate expression over rows matching criteria, one row per value of group field if not null
+	 * @param values filled with values to bind, in order
+	 */
+	static String sqlAggregate(Criteria<?> criteria, String expression, Accessor group, List<Object> values) {
+		StringBuilder buffer = new StringBuilder("select ");
+		if(group != null){
+			buffer.append(group.name);
+			buffer.append(", ");
+		}
+		buffer.append(expression);
+		buffer.append(" from ");
+		buffer.append(DAOReflect.plan(criteria.clazz).table);
+		where(buffer, criteria, null, values);
+		if(group != null){
+			buffer.append(" group by ");
+			buffer.append(group.name);
+			buffer.append(" order by ");
+			buffer.append(group.name);
+		}
+		return buffer.toString();
+	}
+	
+	/**
+	 * Select of the first row matching criteria, without columns
+	 * @param values filled with values to bind, in order
+	 */
+	static String sqlExists(Criteria<?> criteria, List<Object> values) {
+		StringBuilder buffer = new StringBuilder("select 1 from ");
+		buffer.append(DAOReflect.plan(criteria.clazz).table);
+		where(buffer, criteria, null, values);
+		buffer.append(" limit 1");
+		return buffer.toString();
+	}
+	
+	/**
+	 * Insert of entity only if no row matches criteria, binding insert values first and then criteria values.
+	 * If criteria compare the entity primary key or a unique field with the entity values, conflicts are ignored by the insert,
+	 * otherwise, and always on MySql, values are inserted by a select filtered by a not exists condition.
+	 * MySql has no insert ignoring only key conflicts: a no-op "on duplicate key update" counts the found row as written
+	 * when the connection reports found rows, the Connector/J default.
+	 * @param values filled with criteria values to bind, in order
+	 */
+	static String sqlInsertIfNotExist(EntityPlan plan, Object entity, Criteria<?> criteria, SqlDialect dialect, List<Object> values) throws Exception {
+		final Accessor[] key = (dialect == SqlDialect.MySql)? null : uniqueKey(plan, entity, criteria);
+		if(key != null){
+			StringBuilder buffer = new StringBuilder(plan.insert.sql);
+			buffer.append(" on conflict ( ");
+			for (int i = 0; i < key.length; i++) {
+				if(i > 0) buffer.append(", ");
+				buffer.append(key[i].name);
+			}
+			buffer.append(" ) do nothing");
+			return buffer.toString();
+		}
+		StringBuilder buffer = new StringBuilder(plan.insertSelect());
+		if(dialect == SqlDialect.MySql){
+			buffer.append(" from dual");
+		}
+		buffer.append(" where not exists ( select 1 from ");
+		buffer.append(plan.table);
+		where(buffer, criteria, null, values);
+		buffer.append(" )");
+		return buffer.toString();
+	}
+	
+	/**
+	 * Fields compared by criteria if they are the primary key, or a unique field, and criteria values are the entity ones
+	 * @return null otherwise
+	 */
+	private static Accessor[] uniqueKey(EntityPlan plan, Object entity, Criteria<?> criteria) throws Exception {
+		final List<Where> conditions = criteria.getCriteria();
+		if(conditions.isEmpty()) return null;
+		final Accessor[] key = new Accessor[conditions.size()];
+		for (int i = 0; i < key.length; i++) {
+			final Where where = conditions.get(i);
+			if(where.operator != Where.EQ || where.and_or != Where.AND || where.values == null || where.values.length != 1) return null;
+			for (int j = 0; j < plan.fields.length && key[i] == null; j++) {
+				if(plan.fields[j].field.equals(where.field)) key[i] = plan.fields[j];
+			}
+			if(key[i] == null || key[i].meta.serial()) return null;
+			final Object value = key[i].get(entity);
+			if(value == null || !value.equals(Accessor.convert(key[i].type, where.values[0]))) return null;
+		}
+		if(key.length == 1 && key[0].meta.unique()) return key;
+		if(key.length != plan.pk.length) return null;
+		for(Accessor pk : plan.pk){
+			boolean found = false;
+			for(Accessor k : key) found |= (k == pk);
+			if(!found) return null;
+		}
+		return key;
+	}
+	
+	/**
+	 * Minimum and maximum value of column among rows matching criteria
+	 * @param values filled with values to bind, in order
+	 */
+	static String sqlRange(Criteria<?> criteria, Accessor column, List<Object> values) {
+		StringBuilder buffer = new StringBuilder("select min(");
+		buffer.append(column.name);
+		buffer.append("), max(");
+		buffer.append(column.name);
+		buffer.append(") from ");
+		buffer.append(DAOReflect.plan(criteria.clazz).table);
+		where(buffer, criteria, null, values);
+		return buffer.toString();
+	}
+	
+	/**
+	 * Prepares statement binding values in order
+	 */
+	static PreparedStatement prepare(Connection con, String sql, List<Object> values) throws Exception {
+		PreparedStatement pstmt = DAO.$.acquire(con, sql);
+		int idx = 1;
+		for(Object v : values){
+			pstmt.setObject(idx++, v);
+		}
+		return pstmt;
+	}
+	
+	/**
+	 * Select statement text of criteria
+	 * @param searchData filled with values to bind, in order
+	 */
+	static <T> String sqlSelectByCriteria(Criteria<T> criteria, SqlDialect dialect, List<Object> searchData) throws Exception {
+		return sqlSelectByCriteria(criteria, null, null, dialect, searchData);
+	}
+	
+	/**
+	 * Select statement text of criteria
+	 * @param columns selected fields, null for the whole entity and its fetched foreign keys
+	 * @param range column bounded by two trailing parameters, "range &gt;= ? and range &lt;= ?", to be bound by caller; null for none
+	 * @param searchData filled with values to bind, in order
+	 */
+	static <T> String sqlSelectByCriteria(Criteria<T> criteria, Accessor[] columns, Accessor range, SqlDialect dialect, List<Object> searchData) throws Exception {
+		final boolean join = columns == null && !criteria.fetch.isEmpty();
+		final EntityPlan plan = DAOReflect.plan(criteria.clazz);
+		final String root = join? "t0" : null;
+		StringBuilder buffer = new StringBuilder("select ");
+		
+		if(columns != null){
+			for (int i = 0; i < columns.length; i++) {
+				if(i > 0){
+					buffer.append(", ");
+				}
+				buffer.append(columns[i].name);
+			}
+		} else if(criteria.distinct.length == 0 && !criteria.select.isEmpty()){
+			final Accessor[] projection = projection(criteria, plan);
+			for (int i = 0; i < projection.length; i++) {
+				if(i > 0){
+					buffer.append(", ");
+				}
+				if(join){
+					buffer.append("t0.");
+				}
+				buffer.append(projection[i].name);
+			}
+		} else if(criteria.distinct.length == 0){
+			buffer.append(join? " t0.* " : " * ");
+		} else {
+			buffer.append(" distinct ");
+			for(int i = 0; i < criteria.distinct.length; i++){
+				if(i>0){
+					buffer.append(", ");
+				}
+				buffer.append(qualify(plan, root, criteria.distinct[i]));
+				
+			}
+		}
+		for(Fetch fetch : join? criteria.fetch : Collections.<Fetch>emptyList()){
+			for (int i = 0; i < fetch.labels.length; i++) {
+				buffer.append(", ");
+				buffer.append(fetch.alias);
+				buffer.append('.');
+				buffer.append(fetch.target.fields[i].name);
+				buffer.append(" as ");
+				buffer.append(fetch.labels[i]);
+			}
+		}
+		
+		buffer.append(" from ");
+		buffer.append(plan.table);
+		if(join){
+			buffer.append(" t0");
+			for(Fetch fetch : criteria.fetch){
+				buffer.append(" left join ");
+				buffer.append(fetch.target.table);
+				buffer.append(' ');
+				buffer.append(fetch.alias);
+				buffer.append(" on t0.");
+				buffer.append(fetch.fk.name);
+				buffer.append(" = ");
+				buffer.append(fetch.alias);
+				buffer.append('.');
+				buffer.append(fetch.target.pk[0].name);
+			}
+		}
+		where(buffer, criteria, root, searchData);
+		if(criteria.after != null){
+			after(buffer, criteria, plan, root, dialect, searchData);
+		}
+		if(range != null){
+			final String column = (root == null)? range.name : root+"."+range.name;
+			buffer.append(" and ");
+			buffer.append(column);
+			buffer.append(" >= ? and ");
+			buffer.append(column);
+			buffer.append(" <= ? ");
+		}
+		if(criteria.groupBy != null && criteria.groupBy.length > 0){
+			buffer.append(" group by ");
+			for (int i = 0; i < criteria.groupBy.length ; i++) {
+				if(i != 0) buffer.append(", ");
+				
+				buffer.append(qualify(plan, root, criteria.groupBy[i]));
+			}
+		}
+		if(criteria.orderBy != null && criteria.orderBy.length > 0){
+			buffer.append(" order by ");
+			for (int i = 0; i < criteria.orderBy.length ; i++) {
+				if(i != 0) buffer.append(", ");
+				
+				buffer.append(qualify(plan, root, criteria.orderBy[i]));
+			}
+		}
+		if(criteria.rows > 0){
+			buffer.append(" limit ");
+			buffer.append(criteria.rows);
+		}
+//		System.out.println("DAO.sqlSelectByCriteria() "+buffer.toString());
+		return buffer.toString();
+	}
+	
+	/**
+	 * Appends keyset pagination condition, selecting rows following the "after" values in order by sequence.
+	 * Row value comparison "(a, b) &gt; (?, ?)" is used when all columns are sorted the same way, 
+	 * the equivalent "a &gt; ? or (a = ? and b &gt; ?)" otherwise and on MySql, whose optimizer doesn't use indexes for row values.
+	 */
+	private static void after(StringBuilder buffer, Criteria<?> criteria, EntityPlan plan, String alias, SqlDialect dialect, List<Object> searchData) throws Exception {
+		final int n = criteria.orderBy.length;
+		if(n == 0){
+			throw new Exception("Keyset pagination requires order by columns");
+		}
+		final Object[] after = criteria.after;
+		final boolean fromEntity = after.length == 1 && plan.clazz.isInstance(after[0]);
+		if(!fromEntity && after.length != n){
+			throw new Exception("Keyset pagination requires a value for each order by column");
+		}
+		final String[] columns = new String[n];
+		final boolean[] desc = new boolean[n];
+		final Object[] values = new Object[n];
+		boolean uniform = true;
+		for (int i = 0; i < n; i++) {
+			final String[] tokens = criteria.orderBy[i].trim().split("\\s+");
+			desc[i] = tokens.length > 1 && tokens[1].equalsIgnoreCase("desc");
+			values[i] = fromEntity? column(plan, tokens[0]).get(after[0]) : after[i];
+			columns[i] = qualify(plan, alias, tokens[0]);
+			uniform &= desc[i] == desc[0];
+		}
+		if(uniform && dialect != SqlDialect.MySql){
+			buffer.append(" and ( ");
+			for (int i = 0; i < n; i++) {
+				if(i > 0) buffer.append(", ");
+				buffer.append(columns[i]);
+			}
+			buffer.append(desc[0]? " ) < ( " : " ) > ( ");
+			for (int i = 0; i < n; i++) {
+				if(i > 0) buffer.append(", ");
+				buffer.append("?");
+				searchData.add(values[i]);
+			}
+			buffer.append(" ) ");
+		} else {
+			buffer.append(" and ( ");
+			for (int i = 0; i < n; i++) {
+				if(i > 0) buffer.append(" or ");
+				buffer.append("( ");
+				for (int j = 0; j < i; j++) {
+					buffer.append(columns[j]);
+					buffer.append(" = ? and ");
+					searchData.add(values[j]);
+				}
+				buffer.append(columns[i]);
+				buffer.append(desc[i]? " < ? )" : " > ? )");
+				searchData.add(values[i]);
+			}
+			buffer.append(" ) ");
+		}
+	}
+	
+	/**
+	 * Fields selected by criteria projection, in entity order: primary key, selected fields, foreign keys fetched or lazy and fields in order by
+	 */
+	static Accessor[] projection(Criteria<?> criteria, EntityPlan plan) {
+		final List<Accessor> fields = new ArrayList<>();
+		for(Accessor field : plan.fields){
+			boolean selected = field.meta.pk() || criteria.select.contains(field) || criteria.lazy.contains(field);
+			for (int i = 0; i < criteria.fetch.size() && !selected; i++) {
+				selected = criteria.fetch.get(i).fk == field;
+			}
+			for (int i = 0; i < criteria.orderBy.length && !selected; i++) {
+				final String column = criteria.orderBy[i].trim().split("\\s+")[0];
+				selected = field.name.equalsIgnoreCase(column) || field.field.getName().equals(column);
+			}
+			if(selected){
+				fields.add(field);
+			}
+		}
+		return fields.toArray(new Accessor[fields.size()]);
+	}
+	
+	/**
+	 * Accessor of field by column or field name
+	 * @throws IllegalArgumentException if entity has no such field
+	 */
+	static Accessor column(EntityPlan plan, String name) {
+		for (int i = 0; i < plan.fields.length; i++) {
+			if(plan.fields[i].name.equalsIgnoreCase(name) || plan.fields[i].field.getName().equals(name)){
+				return plan.fields[i];
+			}
+		}
+		throw new IllegalArgumentException("No field or column "+name+" in entity "+plan.clazz.getName());
+	}
+	
+	/**
+	 * Prefixes expression with table alias when it starts with a column of entity, e.g. "name desc" becomes "t0.name desc"
+	 */
+	private static String qualify(EntityPlan plan, String alias, String expression) {
+		if(alias == null) return expression;
+		String trimmed = expression.trim();
+		int end = 0;
+		while(end < trimmed.length() && (Character.isJavaIdentifierPart(trimmed.charAt(end)))) end++;
+		if(end < trimmed.length() && (trimmed.charAt(end) == '.' || trimmed.charAt(end) == '(')) return expression;
+		String column = trimmed.substring(0, end);
+		for (int i = 0; i < plan.fields.length; i++) {
+			if(plan.fields[i].name.equalsIgnoreCase(column)){
+				return alias+"."+trimmed;
+			}
+		}
+		return expression;
+	}
+	
+	
+	static void closeAll(PreparedStatement pstmt, ResultSet res) {
+		try {
+			pstmt.close();
+		} catch (Exception e) {}
+		try {
+			res.close();
+		} catch (Exception e) {}
+	}
+	
+	static void closeAll(PreparedStatement pstmt) {
+		try {
+			pstmt.close();
+		} catch (Exception e) {}
+		
+	}
+	
+	static void closeAll(Statement pstmt) {
+		try {
+			pstmt.close();
+		} catch (Exception e) {}
+	}
+}
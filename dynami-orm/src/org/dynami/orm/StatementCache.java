@@ -0,0 +1,268 @@
+/*
+ * Copyright 2017 Alessandro Atria - a.atria@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dynami.orm;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Least recently used cache of prepared statements, keyed by connection and sql text.
+ * A statement is taken out of the cache while in use, so that threads sharing a connection never share a statement,
+ * and is put back, with parameters cleared and fetch size and max rows restored, when released.
+ * Idle statements beyond the size of a connection are closed, all of them when the connection is invalidated.
+ *
+ * @author Alessandro Atria - a.atria@gmail.com
+ *
+ */
+final class StatementCache {
+	private final Map<Connection, Statements> connections = new ConcurrentHashMap<>();
+	private volatile int maxSize;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * @param maxSize maximum number of idle statements per connection, 0 disables the cache
+	 */
+	void resize(int maxSize) {
+		if(maxSize < 0) throw new IllegalArgumentException("Statement cache size can't be negative");
+		this.maxSize = maxSize;
+		if(maxSize == 0){
+			clear();
+			return;
+		}
+		for(Statements statements : connections.values()){
+			for(Statement evicted : statements.trim(maxSize)){
+				evictions.increment();
+				close(evicted);
+			}
+		}
+	}
+
+	PreparedStatement acquire(Connection conn, String sql) throws SQLException {
+		if(maxSize == 0){
+			return conn.prepareStatement(sql);
+		}
+		final Statements statements = connections.computeIfAbsent(conn, c -> new Statements());
+		Cached cached = statements.take(sql);
+		if(cached != null && !cached.pstmt.isClosed()){
+			hits.increment();
+		} else {
+			misses.increment();
+			cached = new Cached(sql, conn.prepareStatement(sql));
+		}
+		statements.lend(cached);
+		return cached.pstmt;
+	}
+
+	/**
+	 * Puts back a statement taken by {@link #acquire(Connection, String)}, any other statement is closed
+	 */
+	void release(Connection conn, Statement stmt) {
+		if(stmt == null) return;
+		final Statements statements = (conn == null)? null : connections.get(conn);
+		final Cached cached = (statements == null)? null : statements.giveBack(stmt);
+		if(cached == null){
+			close(stmt);
+			return;
+		}
+		try {
+			cached.reset();
+		} catch (Exception e) {
+			close(stmt);
+			return;
+		}
+		for(Statement evicted : statements.put(cached, maxSize)){
+			if(evicted != stmt) evictions.increment();
+			close(evicted);
+		}
+	}
+
+	/**
+	 * Closes idle statements of a connection, statements in use are closed when released
+	 */
+	void invalidate(Connection conn) {
+		final Statements statements = connections.remove(conn);
+		if(statements != null){
+			for(Statement stmt : statements.clear()){
+				close(stmt);
+			}
+		}
+	}
+
+	void clear() {
+		for(Connection conn : connections.keySet()){
+			invalidate(conn);
+		}
+	}
+
+	EntityCache.Stats stats() {
+		long size = 0;
+		for(Statements statements : connections.values()){
+			size += statements.size();
+		}
+		return new EntityCache.Stats(hits.sum(), misses.sum(), evictions.sum(), size);
+	}
+
+	private static void close(Statement stmt) {
+		try {
+			stmt.close();
+		} catch (Exception e) {}
+	}
+
+	/**
+	 * Statement with the settings it was prepared with, which callers may change while using it
+	 */
+	private static final class Cached {
+		final String sql;
+		final PreparedStatement pstmt;
+		final int fetchSize;
+		final int maxRows;
+
+		Cached(String sql, PreparedStatement pstmt) throws SQLException {
+			this.sql = sql;
+			this.pstmt = pstmt;
+			this.fetchSize = pstmt.getFetchSize();
+			this.maxRows = pstmt.getMaxRows();
+		}
+
+		void reset() throws SQLException {
+			pstmt.clearParameters();
+			pstmt.clearBatch();
+			if(pstmt.getFetchSize() != fetchSize){
+				pstmt.setFetchSize(fetchSize);
+			}
+			if(pstmt.getMaxRows() != maxRows){
+				pstmt.setMaxRows(maxRows);
+			}
+		}
+	}
+
+	/**
+	 * Statements of a connection, guarded by a lock held only for map updates
+	 */
+	private static final class Statements {
+		private final ReentrantLock lock = new ReentrantLock();
+		private final LinkedHashMap<String, Cached> idle = new LinkedHashMap<>(16, 0.75f, true);
+		private final Map<Statement, Cached> lent = new IdentityHashMap<>();
+		private boolean invalid;
+
+		Cached take(String sql) {
+			lock.lock();
+			try {
+				return idle.remove(sql);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		void lend(Cached cached) {
+			lock.lock();
+			try {
+				lent.put(cached.pstmt, cached);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		Cached giveBack(Statement stmt) {
+			lock.lock();
+			try {
+				return lent.remove(stmt);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Adds an idle statement
+		 * @return statements to close: the passed one if already cached or invalidated, the least recently used above maxSize
+		 */
+		List<Statement> put(Cached cached, int maxSize) {
+			lock.lock();
+			try {
+				if(invalid || maxSize == 0 || idle.containsKey(cached.sql)){
+					final List<Statement> evicted = new ArrayList<>(1);
+					evicted.add(cached.pstmt);
+					return evicted;
+				}
+				idle.put(cached.sql, cached);
+				return evict(maxSize);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Removes least recently used statements above maxSize
+		 * @return statements to close
+		 */
+		List<Statement> trim(int maxSize) {
+			lock.lock();
+			try {
+				return evict(maxSize);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		private List<Statement> evict(int maxSize) {
+			final List<Statement> evicted = new ArrayList<>(1);
+			final Iterator<Cached> it = idle.values().iterator();
+			for(int size = idle.size(); size > maxSize; size--){
+				evicted.add(it.next().pstmt);
+				it.remove();
+			}
+			return evicted;
+		}
+
+		List<Statement> clear() {
+			lock.lock();
+			try {
+				invalid = true;
+				final List<Statement> closing = new ArrayList<Statement>(idle.size());
+				for(Cached cached : idle.values()){
+					closing.add(cached.pstmt);
+				}
+				idle.clear();
+				return closing;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		int size() {
+			lock.lock();
+			try {
+				return idle.size();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+}
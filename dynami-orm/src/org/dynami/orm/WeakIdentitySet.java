@@ -0,0 +1,82 @@
+/*
+ * Copyright 2017 Alessandro Atria - a.atria@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dynami.orm;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Thread safe set of objects compared by identity, which doesn't keep them from being garbage collected.
+ * Entries of collected objects are purged on insertion.
+ *
+ * @author Alessandro Atria - a.atria@gmail.com
+ *
+ */
+final class WeakIdentitySet {
+	private final Map<Ref, Boolean> refs = new ConcurrentHashMap<>();
+	private final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+
+	void add(Object obj) {
+		purge();
+		refs.put(new Ref(obj, queue), Boolean.TRUE);
+	}
+
+	boolean contains(Object obj) {
+		return !refs.isEmpty() && refs.containsKey(new Ref(obj, null));
+	}
+
+	void remove(Object obj) {
+		if(!refs.isEmpty()){
+			refs.remove(new Ref(obj, null));
+		}
+	}
+
+	int size() {
+		purge();
+		return refs.size();
+	}
+
+	private void purge() {
+		for(Reference<?> ref; (ref = queue.poll()) != null;){
+			refs.remove(ref);
+		}
+	}
+
+	private static final class Ref extends WeakReference<Object> {
+		private final int hash;
+
+		Ref(Object obj, ReferenceQueue<Object> queue) {
+			super(obj, queue);
+			this.hash = System.identityHashCode(obj);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(obj == this) return true;
+			if(!(obj instanceof Ref)) return false;
+			final Object referent = get();
+			return referent != null && referent == ((Ref)obj).get();
+		}
+	}
+}
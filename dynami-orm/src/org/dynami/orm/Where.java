@@ -0,0 +1,131 @@
+/*
+ * Copyright 2017 Alessandro Atria - a.atria@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dynami.orm;
+
+import java.lang.reflect.Field;
+
+/**
+ * Condition of a {@link Criteria} on a field
+ *
+ * @author Alessandro Atria - a.atria@gmail.com
+ *
+ */
+class Where {
+	static final int AND = 0;
+	static final int OR = 1;
+	
+	static final int EQ = 0;
+	static final int GT = 1;
+	static final int EGT = 2;
+	static final int LT = 3;
+	static final int ELT = 4;
+	static final int LIKE = 5;
+	static final int BETWEEN = 6;
+	static final int IN = 7;
+	static final int NEQ = 8;
+	static final int NOT_LIKE = 9;
+	static final int NOT_IN = 10;
+	static final int IS_NULL = 11;
+	static final int IS_NOT_NULL = 12;
+	static final int RIGHT_LIKE = 13;
+	
+	public Where(int AND_OR, Field field, int operator){
+		this.field = field;
+		this.operator = operator;
+	}
+	
+	public Where(int AND_OR, Field field, int operator, Object[] values){
+		this.field = field;
+		this.values = values;
+		this.operator = operator;
+	}
+	
+	Field field;
+	Object[] values;
+	int operator;
+	int and_or;
+	
+	public String toString(){
+		return toString(null);
+	}
+	
+	/**
+	 * @param alias table alias qualifying the column, null for none
+	 */
+	String toString(String alias){
+		final String name = (alias == null)? DAOReflect.getName(field) : alias+"."+DAOReflect.getName(field);
+		String result=(and_or==AND)?" and ":" or ";
+		switch (operator) {
+		case EQ:
+			result += name+" = ? ";
+			break;
+		case NEQ:
+			result += name+" <> ? ";
+			break;
+		case GT:
+			result += name+" > ? ";
+			break;
+		case EGT:
+			result += name+" >= ? ";
+			break;
+		case LT:
+			result += name+" < ? ";
+			break;
+		case ELT:
+			result += name+" <= ? ";
+			break;
+		case LIKE:
+			result += name+" like ? ";
+			break;
+		case RIGHT_LIKE:
+			result += name+" like ? ";
+			break;
+		case NOT_LIKE:
+			result += name+" not like ? ";
+			break;
+		case IS_NULL:
+			result += name+" is NULL ";
+			break;
+		case IS_NOT_NULL:
+			result += name+" is NOT NULL ";
+			break;
+		case BETWEEN:
+			result += name+" between ? and ? ";
+			break;
+		case IN:
+			result += name+" in ( ";
+			for (int i = 0; i < values.length; i++) {
+				if(i != 0)
+					result += " , ";
+				result += " ? ";
+			}
+			result += " ) ";
+			break;
+		case NOT_IN:
+			result += name+" not in ( ";
+			for (int i = 0; i < values.length; i++) {
+				if(i != 0)
+					result += " , ";
+				result += " ? ";
+			}
+			result += " ) ";
+			break;
+		default:
+			break;
+		}
+		return result;
+	}
+}
@@ -0,0 +1,448 @@
+/*
+ * Copyright 2017 Alessandro Atria - a.atria@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dynami.orm;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Write-behind buffer of entity changes, created by {@link DAO#writeBehind(int, int, long)}.
+ * Writes are queued by entity primary key (by instance for entities with a serial field not valued yet) and coalesced,
+ * so that only the last state of an entity is written: an insert followed by updates is one insert,
+ * an insert followed by a delete is nothing.
+ * Pending writes are flushed in one transaction when they reach the batch size, every flush interval, on {@link #flush()} and on close:
+ * inserts and updates of referenced tables first, deletes in the opposite order, each table with batch statements.
+ * When the buffer holds the maximum number of pending writes, writers wait for the running flush, up to the wait timeout.
+ * Writes of a failed flush are kept pending ahead of newer ones and retried by the next flush; while they fill the buffer
+ * writers fail instead of waiting. {@link #failed()} lists them and {@link #discardFailed()} drops them.
+ * Pending writes aren't visible to DAO reads until flushed.
+ *
+ * @author Alessandro Atria - a.atria@gmail.com
+ *
+ */
+public final class WriteBehind implements AutoCloseable {
+	private static final AtomicInteger instances = new AtomicInteger();
+
+	enum Op {INSERT, UPDATE, SAVE, DELETE}
+
+	private final DAO dao;
+	private final int batchSize;
+	private final int maxPending;
+	private final long waitMillis;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notFull = lock.newCondition();
+	private final ReentrantLock flushing = new ReentrantLock();
+	private final AtomicBoolean flushRequested = new AtomicBoolean();
+	private final ScheduledExecutorService flusher;
+	private LinkedHashMap<Object, Write> pending = new LinkedHashMap<>();
+	private int inFlight;
+	private Set<Object> failedKeys = Collections.emptySet();
+	private volatile Exception failure;
+	private volatile boolean closed;
+
+	WriteBehind(DAO dao, int batchSize, int maxPending, long flushMillis, long waitMillis) {
+		if(batchSize < 1) throw new IllegalArgumentException("Batch size must be positive");
+		if(maxPending < batchSize) throw new IllegalArgumentException("Maximum pending writes can't be lower than batch size");
+		if(waitMillis < 0) throw new IllegalArgumentException("Wait timeout can't be negative");
+		this.dao = dao;
+		this.batchSize = batchSize;
+		this.maxPending = maxPending;
+		this.waitMillis = waitMillis;
+		final String name = "dynami-write-behind-"+instances.incrementAndGet();
+		final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+			Thread t = new Thread(r, name);
+			t.setDaemon(true);
+			return t;
+		});
+		executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+		this.flusher = executor;
+		if(flushMillis > 0){
+			flusher.scheduleWithFixedDelay(this::flushQuietly, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	public void insert(Object entity) throws Exception {
+		write(Op.INSERT, entity);
+	}
+
+	public void update(Object entity) throws Exception {
+		write(Op.UPDATE, entity);
+	}
+
+	/**
+	 * Queues entity to be updated if existing and inserted otherwise, like {@link DAO#save(Object)}
+	 */
+	public void save(Object entity) throws Exception {
+		write(Op.SAVE, entity);
+	}
+
+	public void delete(Object entity) throws Exception {
+		write(Op.DELETE, entity);
+	}
+
+	/**
+	 * Number of writes not yet flushed, including those of a running flush
+	 */
+	public int pending() {
+		lock.lock();
+		try {
+			return pending.size() + inFlight;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Last exception thrown by a flush, whose writes are kept pending and retried; null once a flush succeeds
+	 */
+	public Exception failure() {
+		return failure;
+	}
+
+	/**
+	 * Entities whose writes were part of the last failed flush and are still pending, in write order
+	 */
+	public List<Object> failed() {
+		lock.lock();
+		try {
+			final List<Object> entities = new ArrayList<>(failedKeys.size());
+			for(Object key : failedKeys){
+				final Write w = pending.get(key);
+				if(w != null) entities.add(w.entity);
+			}
+			return entities;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Drops the pending writes of the last failed flush, such as a write the database always rejects, and clears the failure
+	 * @return entities whose writes have been dropped
+	 */
+	public List<Object> discardFailed() {
+		flushing.lock();
+		try {
+			lock.lock();
+			try {
+				final List<Object> entities = new ArrayList<>(failedKeys.size());
+				for(Object key : failedKeys){
+					final Write w = pending.remove(key);
+					if(w != null) entities.add(w.entity);
+				}
+				failedKeys = Collections.emptySet();
+				failure = null;
+				notFull.signalAll();
+				return entities;
+			} finally {
+				lock.unlock();
+			}
+		} finally {
+			flushing.unlock();
+		}
+	}
+
+	/**
+	 * Writes pending changes, waiting for a running flush first
+	 * @throws Exception the exception of the flush, whose writes are kept pending
+	 */
+	public void flush() throws Exception {
+		flushing.lock();
+		try {
+			final LinkedHashMap<Object, Write> writes;
+			lock.lock();
+			try {
+				writes = pending;
+				if(writes.isEmpty()) return;
+				pending = new LinkedHashMap<>();
+				inFlight = writes.size();
+			} finally {
+				lock.unlock();
+			}
+			try {
+				write(writes);
+				lock.lock();
+				try {
+					failure = null;
+					failedKeys = Collections.emptySet();
+				} finally {
+					lock.unlock();
+				}
+			} catch (Exception e) {
+				failure = e;
+				requeue(writes);
+				throw e;
+			} finally {
+				lock.lock();
+				try {
+					inFlight = 0;
+					notFull.signalAll();
+				} finally {
+					lock.unlock();
+				}
+			}
+		} finally {
+			flushing.unlock();
+		}
+	}
+
+	/**
+	 * Flushes pending writes and stops the background flusher. Writers still waiting fail.
+	 * @throws SQLException the exception of the last flush, wrapped if not an SQLException
+	 */
+	@Override
+	public void close() throws SQLException {
+		if(closed) return;
+		closed = true;
+		lock.lock();
+		try {
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		flusher.shutdown();
+		try {
+			flusher.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			flush();
+		} catch (SQLException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new SQLException("Write-behind flush failed", e);
+		}
+	}
+
+	private void write(Op op, Object entity) throws Exception {
+		if(entity == null) return;
+		if(closed) throw new IllegalStateException("Write-behind buffer closed");
+		if(op != Op.DELETE) dao.checkComplete(entity);
+		final EntityPlan plan = DAOReflect.plan(entity.getClass());
+		final Object key = (plan.serial != null && (op == Op.INSERT || !isValued(plan.serial.get(entity))))? new Instance(entity) : new Key(entity.getClass(), plan.key(entity));
+		boolean full;
+		lock.lock();
+		try {
+			long nanos = TimeUnit.MILLISECONDS.toNanos(waitMillis);
+			while(pending.size() + inFlight >= maxPending && !pending.containsKey(key)){
+				if(closed) throw new IllegalStateException("Write-behind buffer closed");
+				if(failure != null && inFlight == 0 && !flushRequested.get()){
+					throw new IllegalStateException("Write-behind buffer full of writes of a failed flush, see failed()", failure);
+				}
+				if(nanos <= 0){
+					throw new TimeoutException("Write-behind buffer still full after "+waitMillis+" ms");
+				}
+				nanos = notFull.awaitNanos(nanos);
+			}
+			final Write previous = pending.get(key);
+			final Op merged = merge((previous == null)? null : previous.op, op);
+			if(merged == null){
+				pending.remove(key);
+			} else if(previous == null){
+				pending.put(key, new Write(merged, entity));
+			} else {
+				previous.op = merged;
+				previous.entity = entity;
+			}
+			full = pending.size() >= batchSize;
+		} finally {
+			lock.unlock();
+		}
+		if(full && flushRequested.compareAndSet(false, true)){
+			try {
+				flusher.execute(() -> {
+					flushRequested.set(false);
+					flushQuietly();
+				});
+			} catch (RejectedExecutionException e) {
+				// closing, pending writes are flushed by close
+			}
+		}
+	}
+
+	/**
+	 * Serial key assigned by the database, an unsaved entity has 0 or null
+	 */
+	private static boolean isValued(Object serial) {
+		return serial != null && !(serial instanceof Number && ((Number)serial).longValue() == 0);
+	}
+
+	/**
+	 * Single write equivalent to previous followed by next, null if they cancel each other
+	 */
+	static Op merge(Op previous, Op next) {
+		if(previous == null || previous == next) return next;
+		switch (next) {
+		case DELETE:
+			return (previous == Op.INSERT)? null : Op.DELETE;
+		case UPDATE:
+			return (previous == Op.DELETE)? Op.DELETE : previous;
+		case SAVE:
+			return (previous == Op.INSERT)? Op.INSERT : Op.SAVE;
+		default:
+			return Op.SAVE;
+		}
+	}
+
+	private void flushQuietly() {
+		try {
+			flush();
+		} catch (Exception e) {
+			// kept in failure, writes retried at next flush
+		}
+	}
+
+	/**
+	 * Puts back writes of a failed flush, before writes queued meanwhile
+	 */
+	private void requeue(LinkedHashMap<Object, Write> writes) {
+		lock.lock();
+		try {
+			failedKeys = new LinkedHashSet<>(writes.keySet());
+			for(Map.Entry<Object, Write> e : pending.entrySet()){
+				final Write previous = writes.get(e.getKey());
+				final Op merged = merge((previous == null)? null : previous.op, e.getValue().op);
+				if(merged == null){
+					writes.remove(e.getKey());
+				} else {
+					writes.put(e.getKey(), new Write(merged, e.getValue().entity));
+				}
+			}
+			pending = writes;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void write(LinkedHashMap<Object, Write> writes) throws Exception {
+		final Map<Class<?>, Map<Op, List<Object>>> byClass = new HashMap<>();
+		for(Write w : writes.values()){
+			byClass.computeIfAbsent(w.entity.getClass(), c -> new HashMap<>()).computeIfAbsent(w.op, o -> new ArrayList<>()).add(w.entity);
+		}
+		final List<Class<?>> order = order(byClass.keySet());
+		dao.inTransaction(s -> {
+			for(Class<?> clazz : order){
+				final Map<Op, List<Object>> ops = byClass.get(clazz);
+				if(ops.containsKey(Op.INSERT)) dao.insertAll(ops.get(Op.INSERT));
+				if(ops.containsKey(Op.SAVE)) dao.upsertAll(ops.get(Op.SAVE));
+				if(ops.containsKey(Op.UPDATE)) dao.updateAll(ops.get(Op.UPDATE));
+			}
+			for (int i = order.size() - 1; i >= 0; i--) {
+				final List<Object> deletes = byClass.get(order.get(i)).get(Op.DELETE);
+				if(deletes != null) dao.deleteAll(deletes);
+			}
+		});
+	}
+
+	/**
+	 * Classes sorted so that referenced tables come first, then by table name
+	 */
+	private static List<Class<?>> order(Iterable<Class<?>> classes) {
+		final TreeMap<String, Class<?>> sorted = new TreeMap<>();
+		final Map<Class<?>, Integer> depths = new HashMap<>();
+		for(Class<?> clazz : classes){
+			sorted.put(String.format("%08d", depth(clazz, depths, 0))+DAOReflect.plan(clazz).table+clazz.getName(), clazz);
+		}
+		return new ArrayList<>(sorted.values());
+	}
+
+	private static int depth(Class<?> clazz, Map<Class<?>, Integer> depths, int level) {
+		final Integer known = depths.get(clazz);
+		if(known != null) return known;
+		int depth = 0;
+		if(level < 32){
+			for(Accessor fk : DAOReflect.plan(clazz).fks){
+				final Class<?> target = fk.meta.fk();
+				if(target != clazz && target.isAnnotationPresent(DAO.IEntity.class)){
+					depth = Math.max(depth, depth(target, depths, level + 1) + 1);
+				}
+			}
+		}
+		depths.put(clazz, depth);
+		return depth;
+	}
+
+	private static final class Write {
+		Op op;
+		Object entity;
+
+		Write(Op op, Object entity) {
+			this.op = op;
+			this.entity = entity;
+		}
+	}
+
+	private static final class Key {
+		private final Class<?> clazz;
+		private final Object key;
+
+		Key(Class<?> clazz, Object key) {
+			this.clazz = clazz;
+			this.key = key;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * clazz.hashCode() + ((key == null)? 0 : key.hashCode());
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(!(obj instanceof Key)) return false;
+			final Key other = (Key)obj;
+			return clazz == other.clazz && (key == null? other.key == null : key.equals(other.key));
+		}
+	}
+
+	/**
+	 * Identity of an entity whose primary key is generated on insert
+	 */
+	private static final class Instance {
+		private final Object entity;
+
+		Instance(Object entity) {
+			this.entity = entity;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(entity);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return (obj instanceof Instance) && ((Instance)obj).entity == entity;
+		}
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2017 Alessandro Atria - a.atria@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dynami.orm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.dynami.orm.DAO.IEntity;
+import org.dynami.orm.DAO.IField;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AggregateTest {
+	private Connection conn;
+
+	@IEntity(name = "agg_trade")
+	public static class Trade {
+		@IField(pk = true)
+		private long id;
+		@IField
+		private String symbol;
+		@IField
+		private int qty;
+		@IField(name = "px")
+		private double price;
+
+		public Trade() {}
+
+		public Trade(long id, String symbol, int qty, double price) {
+			this.id = id;
+			this.symbol = symbol;
+			this.qty = qty;
+			this.price = price;
+		}
+
+		public long getId() { return id; }
+		public void setId(long id) { this.id = id; }
+		public String getSymbol() { return symbol; }
+		public void setSymbol(String symbol) { this.symbol = symbol; }
+		public int getQty() { return qty; }
+		public void setQty(int qty) { this.qty = qty; }
+		public double getPrice() { return price; }
+		public void setPrice(double price) { this.price = price; }
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		conn = DriverManager.getConnection("jdbc:sqlite::memory:");
+		DAO.$.setup(DAO.SqlDialect.Sqlite, new DAO.SingleConnectionDataSource(conn));
+		DAO.$.register(Trade.class);
+		DAO.$.insertAll(Arrays.asList(
+				new Trade(1, "BBB", 10, 2.0),
+				new Trade(2, "AAA", 5, 1.0),
+				new Trade(3, "BBB", 30, 4.0),
+				new Trade(4, "AAA", 15, 3.0)));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		conn.close();
+	}
+
+	@Test
+	public void aggregatesOverAllRows() throws Exception {
+		final Criteria<Trade> all = new Criteria<>(Trade.class);
+		assertEquals(4L, DAO.$.count(all));
+		assertEquals(60L, DAO.$.sum(all, "qty"));
+		assertEquals(10.0, DAO.$.sum(all, "price"));
+		assertEquals(Integer.valueOf(5), DAO.$.min(all, "qty"));
+		assertEquals(Double.valueOf(4.0), DAO.$.max(all, "price"));
+		assertEquals(15.0, DAO.$.avg(all, "qty"), 0);
+	}
+
+	@Test
+	public void aggregatesOverMatchingRows() throws Exception {
+		final Criteria<Trade> bbb = new Criteria<>(Trade.class).andEquals("symbol", "BBB");
+		assertEquals(2L, DAO.$.count(bbb));
+		assertEquals(40L, DAO.$.sum(bbb, "qty"));
+		assertEquals(3.0, DAO.$.avg(bbb, "price"), 0);
+
+		final Criteria<Trade> none = new Criteria<>(Trade.class).andEquals("symbol", "CCC");
+		assertEquals(0L, DAO.$.count(none));
+		assertEquals(0L, DAO.$.sum(none, "qty"));
+		assertEquals(0.0, DAO.$.sum(none, "price"));
+		assertNull(DAO.$.min(none, "qty"));
+		assertNull(DAO.$.avg(none, "qty"));
+	}
+
+	@Test
+	public void aggregatesByGroupInGroupOrder() throws Exception {
+		final Criteria<Trade> all = new Criteria<>(Trade.class);
+		final Map<String, Long> counts = DAO.$.countBy(all, "symbol");
+		assertEquals(Arrays.asList("AAA", "BBB"), new ArrayList<>(counts.keySet()));
+		assertEquals(Long.valueOf(2), counts.get("AAA"));
+
+		final Map<String, Number> sums = DAO.$.sumBy(all, "qty", "symbol");
+		assertEquals(20L, sums.get("AAA"));
+		assertEquals(40L, sums.get("BBB"));
+
+		final Map<String, Integer> min = DAO.$.minBy(all, "qty", "symbol");
+		assertEquals(Integer.valueOf(5), min.get("AAA"));
+		final Map<String, Double> max = DAO.$.maxBy(all, "price", "symbol");
+		assertEquals(Double.valueOf(4.0), max.get("BBB"));
+		final Map<String, Double> avg = DAO.$.avgBy(new Criteria<>(Trade.class).andEquals("symbol", "AAA"), "price", "symbol");
+		assertEquals(1, avg.size());
+		assertEquals(2.0, avg.get("AAA"), 0);
+
+		final Map<Integer, Long> byQty = DAO.$.countBy(all, "qty");
+		assertEquals(Arrays.asList(5, 10, 15, 30), new ArrayList<>(byQty.keySet()));
+	}
+
+	@Test
+	public void fieldsAreFoundByColumnName() throws Exception {
+		assertEquals(10.0, DAO.$.sum(new Criteria<>(Trade.class), "px"));
+	}
+
+	@Test
+	public void unknownFieldIsRejected() throws Exception {
+		try {
+			DAO.$.sum(new Criteria<>(Trade.class), "volume");
+			fail("unknown field aggregated");
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage().contains("volume"));
+			assertTrue(e.getMessage().contains(Trade.class.getName()));
+		}
+	}
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2017 Alessandro Atria - a.atria@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dynami.orm;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.Arrays;
+import java.util.List;
+
+import org.dynami.orm.DAO.IEntity;
+import org.dynami.orm.DAO.IField;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BulkTest {
+	private Connection conn;
+
+	@IEntity(name = "bulk_item")
+	public static class Item {
+		@IField(pk = true)
+		private long id;
+		@IField
+		private String name;
+
+		public Item() {}
+
+		public Item(long id, String name) {
+			this.id = id;
+			this.name = name;
+		}
+
+		public long getId() { return id; }
+		public void setId(long id) { this.id = id; }
+		public String getName() { return name; }
+		public void setName(String name) { this.name = name; }
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		conn = DriverManager.getConnection("jdbc:sqlite::memory:");
+		DAO.$.setup(DAO.SqlDialect.Sqlite, new DAO.SingleConnectionDataSource(conn));
+		DAO.$.register(Item.class);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		DAO.$.setBatchSize(1000);
+		DAO.$.setMultiRowInsert(false);
+		conn.close();
+	}
+
+	private List<Item> items(long from, long to) {
+		final Item[] items = new Item[(int)(to - from + 1)];
+		for (int i = 0; i < items.length; i++) {
+			items[i] = new Item(from + i, "item"+(from + i));
+		}
+		return Arrays.asList(items);
+	}
+
+	@Test
+	public void insertUpdateAndDeleteInBatches() throws Exception {
+		DAO.$.setBatchSize(2);
+		assertArrayEquals(new int[]{2, 2, 1}, DAO.$.insertAll(items(1, 5)));
+		assertEquals(5, DAO.$.count(new Criteria<>(Item.class)));
+
+		final List<Item> renamed = items(1, 3);
+		for(Item item : renamed){
+			item.setName("renamed");
+		}
+		assertArrayEquals(new int[]{2, 1}, DAO.$.updateAll(renamed));
+		assertEquals(3, DAO.$.count(new Criteria<>(Item.class).andEquals("name", "renamed")));
+
+		assertArrayEquals(new int[]{2}, DAO.$.deleteAll(items(1, 2)));
+		assertArrayEquals(new int[]{1}, DAO.$.deleteAll(Item.class, Arrays.asList(3L, 42L)));
+		assertNull(DAO.$.load(Item.class, 3L));
+		assertEquals(2, DAO.$.count(new Criteria<>(Item.class)));
+	}
+
+	@Test
+	public void multiRowInsert() throws Exception {
+		DAO.$.setBatchSize(2);
+		DAO.$.setMultiRowInsert(true);
+		assertArrayEquals(new int[]{2, 1}, DAO.$.insertAll(items(1, 3)));
+		assertEquals("item3", DAO.$.load(Item.class, 3L).getName());
+	}
+
+	@Test
+	public void failedBatchIsRolledBack() throws Exception {
+		DAO.$.insert(new Item(4, "existing"));
+		DAO.$.setBatchSize(2);
+		try {
+			// second batch holds the duplicate key
+			DAO.$.insertAll(items(1, 4));
+			fail("duplicate primary key inserted");
+		} catch (Exception e) {}
+		assertNotNull(DAO.$.load(Item.class, 1L));
+		assertNotNull(DAO.$.load(Item.class, 2L));
+		assertNull(DAO.$.load(Item.class, 3L));
+		assertEquals("existing", DAO.$.load(Item.class, 4L).getName());
+		assertTrue(conn.getAutoCommit());
+	}
+
+	@Test
+	public void failedMultiRowInsertIsRolledBack() throws Exception {
+		DAO.$.insert(new Item(2, "existing"));
+		DAO.$.setMultiRowInsert(true);
+		try {
+			DAO.$.insertAll(items(1, 3));
+			fail("duplicate primary key inserted");
+		} catch (Exception e) {}
+		assertNull(DAO.$.load(Item.class, 1L));
+		assertNull(DAO.$.load(Item.class, 3L));
+		assertEquals(1, DAO.$.count(new Criteria<>(Item.class)));
+		assertTrue(conn.getAutoCommit());
+	}
+}
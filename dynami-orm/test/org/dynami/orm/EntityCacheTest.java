@@ -0,0 +1,110 @@
+/*
+ * Copyright 2017 Alessandro Atria - a.atria@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dynami.orm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class EntityCacheTest {
+
+	@Test
+	public void lruEvictsLeastRecentlyUsed() {
+		// sixteen segments of two entries, multiples of 16 share the first one
+		final LruEntityCache cache = new LruEntityCache(32);
+		cache.put(0, "zero");
+		cache.put(16, "sixteen");
+		assertEquals("zero", cache.get(0));
+		cache.put(32, "thirty-two");
+		assertEquals("zero", cache.get(0));
+		assertNull(cache.get(16));
+		assertEquals("thirty-two", cache.get(32));
+
+		final EntityCache.Stats stats = cache.stats();
+		assertEquals(3, stats.hits());
+		assertEquals(1, stats.misses());
+		assertEquals(1, stats.evictions());
+		assertEquals(2, stats.size());
+	}
+
+	@Test
+	public void clockEvictsEntriesNotReferencedSinceLastSweep() {
+		final LongKeyEntityCache cache = new LongKeyEntityCache(2);
+		cache.put(1L, "one");
+		cache.put(2L, "two");
+		assertEquals("one", cache.get(1L));
+		cache.put(3L, "three");
+		assertEquals("one", cache.get(1L));
+		assertNull(cache.get(2L));
+		assertEquals("three", cache.get(3L));
+		assertEquals(1, cache.stats().evictions());
+		assertEquals(2, cache.size());
+	}
+
+	@Test
+	public void longKeysAreFoundAsAnyNumber() {
+		final LongKeyEntityCache cache = new LongKeyEntityCache(10);
+		cache.put(Integer.valueOf(7), "seven");
+		assertEquals("seven", cache.get(7L));
+		assertEquals("seven", cache.get(Short.valueOf((short)7)));
+		assertNull(cache.get("7"));
+		cache.remove(Long.valueOf(7));
+		assertNull(cache.get(7L));
+
+		final EntityCache.Stats stats = cache.stats();
+		assertEquals(2, stats.hits());
+		assertEquals(2, stats.misses());
+	}
+
+	@Test
+	public void removedKeysKeepOthersReachable() {
+		final LongKeyEntityCache cache = new LongKeyEntityCache(64);
+		for (long key = 0; key < 64; key++) {
+			cache.put(key, "v"+key);
+		}
+		for (long key = 0; key < 64; key += 2) {
+			cache.remove(key);
+		}
+		assertEquals(32, cache.size());
+		for (long key = 1; key < 64; key += 2) {
+			assertEquals("v"+key, cache.get(key));
+		}
+		cache.clear();
+		assertEquals(0, cache.size());
+		assertNull(cache.get(1L));
+	}
+
+	@Test
+	public void entriesExpireAfterTimeToLive() throws Exception {
+		final EntityCache[] caches = {new LruEntityCache(10, 50), new LongKeyEntityCache(10, 50)};
+		for(EntityCache cache : caches){
+			cache.put(1L, "one");
+			assertEquals("one", cache.get(1L));
+			Thread.sleep(100);
+			cache.put(2L, "two");
+			assertNull(cache.get(1L));
+			assertEquals("two", cache.get(2L));
+			assertEquals(1, cache.size());
+
+			final EntityCache.Stats stats = cache.stats();
+			assertEquals(2, stats.hits());
+			assertEquals(1, stats.misses());
+			// expired entries aren't evictions
+			assertEquals(0, stats.evictions());
+		}
+	}
+}
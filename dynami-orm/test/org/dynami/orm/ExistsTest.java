@@ -0,0 +1,96 @@
+/*
+ * Copyright 2017 Alessandro Atria - a.atria@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dynami.orm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+
+import org.dynami.orm.DAO.IEntity;
+import org.dynami.orm.DAO.IField;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ExistsTest {
+	private Connection conn;
+	private StatementLog log;
+
+	@IEntity(name = "exists_user")
+	public static class User {
+		@IField(pk = true, serial = true)
+		private long id;
+		@IField
+		private String email;
+		@IField
+		private boolean active;
+
+		public User() {}
+
+		public User(String email, boolean active) {
+			this.email = email;
+			this.active = active;
+		}
+
+		public long getId() { return id; }
+		public void setId(long id) { this.id = id; }
+		public String getEmail() { return email; }
+		public void setEmail(String email) { this.email = email; }
+		public boolean isActive() { return active; }
+		public void setActive(boolean active) { this.active = active; }
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		conn = DriverManager.getConnection("jdbc:sqlite::memory:");
+		log = new StatementLog(conn);
+		DAO.$.setup(DAO.SqlDialect.Sqlite, new DAO.SingleConnectionDataSource(log.connection));
+		DAO.$.register(User.class);
+		DAO.$.insert(new User("a@example.com", true));
+		log.clear();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		conn.close();
+	}
+
+	@Test
+	public void insertIfNotExistWritesOnlyMissingRows() throws Exception {
+		final User duplicate = new User("a@example.com", false);
+		assertFalse(DAO.$.insertIfNotExist(duplicate, new Criteria<>(User.class).andEquals("email", "a@example.com")));
+		assertEquals(0, duplicate.getId());
+
+		final User added = new User("b@example.com", false);
+		assertTrue(DAO.$.insertIfNotExist(added, new Criteria<>(User.class).andEquals("email", "b@example.com")));
+		assertTrue(added.getId() > 0);
+		assertEquals("b@example.com", DAO.$.load(User.class, added.getId()).getEmail());
+		assertEquals(2, DAO.$.count(new Criteria<>(User.class)));
+		// a statement per call, no select ahead of the insert
+		assertEquals(4, log.count());
+	}
+
+	@Test
+	public void existsMatchesCriteria() throws Exception {
+		assertTrue(DAO.$.exists(new Criteria<>(User.class).andEquals("email", "a@example.com")));
+		assertTrue(DAO.$.exists(new Criteria<>(User.class)));
+		assertFalse(DAO.$.exists(new Criteria<>(User.class).andEquals("email", "a@example.com").andEquals("active", false)));
+		assertFalse(DAO.$.exists(new Criteria<>(User.class).andEquals("email", "b@example.com")));
+	}
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2017 Alessandro Atria - a.atria@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dynami.orm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.List;
+
+import org.dynami.orm.DAO.IEntity;
+import org.dynami.orm.DAO.IField;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FetchTest {
+	private Connection conn;
+	private StatementLog log;
+
+	@IEntity(name = "fetch_continent")
+	public static class Continent {
+		@IField(pk = true)
+		private long id;
+		@IField
+		private String name;
+
+		public Continent() {}
+
+		public Continent(long id, String name) {
+			this.id = id;
+			this.name = name;
+		}
+
+		public long getId() { return id; }
+		public void setId(long id) { this.id = id; }
+		public String getName() { return name; }
+		public void setName(String name) { this.name = name; }
+	}
+
+	@IEntity(name = "fetch_country", cache = true)
+	public static class Country {
+		@IField(pk = true)
+		private long id;
+		@IField
+		private String name;
+		@IField(fk = Continent.class)
+		private long continentId;
+		private Continent continent;
+
+		public Country() {}
+
+		public Country(long id, String name, long continentId) {
+			this.id = id;
+			this.name = name;
+			this.continentId = continentId;
+		}
+
+		public long getId() { return id; }
+		public void setId(long id) { this.id = id; }
+		public String getName() { return name; }
+		public void setName(String name) { this.name = name; }
+		public long getContinentId() { return continentId; }
+		public void setContinentId(long continentId) { this.continentId = continentId; }
+		public Continent getContinent() { return continent; }
+		public void loadContinent(Continent continent) { this.continent = continent; }
+	}
+
+	@IEntity(name = "fetch_person")
+	public static class Person {
+		@IField(pk = true)
+		private long id;
+		@IField
+		private String name;
+		@IField(fk = Country.class)
+		private long countryId;
+		private Country country;
+
+		public Person() {}
+
+		public Person(long id, String name, long countryId) {
+			this.id = id;
+			this.name = name;
+			this.countryId = countryId;
+		}
+
+		public long getId() { return id; }
+		public void setId(long id) { this.id = id; }
+		public String getName() { return name; }
+		public void setName(String name) { this.name = name; }
+		public long getCountryId() { return countryId; }
+		public void setCountryId(long countryId) { this.countryId = countryId; }
+		public Country getCountry() { return country; }
+		public void loadCountry(Country country) { this.country = country; }
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		conn = DriverManager.getConnection("jdbc:sqlite::memory:");
+		log = new StatementLog(conn);
+		DAO.$.setup(DAO.SqlDialect.Sqlite, new DAO.SingleConnectionDataSource(log.connection));
+		// discards countries cached by previous tests
+		DAO.$.setCacheFactory((clazz, config) -> new LruEntityCache(config.cacheSize(), config.cacheTtl()));
+		DAO.$.register(Continent.class, Country.class, Person.class);
+		DAO.$.executeNativeSQL("insert into fetch_continent (id, name) values (1, 'Europe')");
+		DAO.$.executeNativeSQL("insert into fetch_country (id, name, continentId) values (1, 'Italy', 1)");
+		DAO.$.executeNativeSQL("insert into fetch_country (id, name, continentId) values (2, 'France', 1)");
+		DAO.$.insert(new Person(1, "Ada", 1));
+		DAO.$.insert(new Person(2, "Bob", 2));
+		DAO.$.insert(new Person(3, "Cid", 1));
+		// references a missing country
+		DAO.$.insert(new Person(4, "Dan", 9));
+		log.clear();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		conn.close();
+	}
+
+	@Test
+	public void fetchJoinsReferencedTable() throws Exception {
+		final List<Person> people = DAO.$.select(new Criteria<>(Person.class).fetch("countryId").orderBy("id"));
+		assertEquals(4, people.size());
+		assertTrue(log.prepared.get(0).contains(" left join fetch_country "));
+		assertEquals("Italy", people.get(0).getCountry().getName());
+		assertEquals("France", people.get(1).getCountry().getName());
+		// a single instance per referenced row
+		assertSame(people.get(0).getCountry(), people.get(2).getCountry());
+		assertNull(people.get(3).getCountry());
+	}
+
+	@Test
+	public void foreignKeysOfFetchedEntitiesAreLoadedAfterTheQuery() throws Exception {
+		final List<Person> people = DAO.$.select(new Criteria<>(Person.class).fetch("countryId").orderBy("id"));
+		final Continent europe = people.get(0).getCountry().getContinent();
+		assertNotNull(europe);
+		assertEquals("Europe", europe.getName());
+		assertNotNull(people.get(1).getCountry().getContinent());
+		// the join and a load for each country, no query per person
+		assertEquals(3, log.count());
+	}
+
+	@Test
+	public void fetchPrefersCachedEntities() throws Exception {
+		final Country italy = DAO.$.load(Country.class, 1L);
+		log.clear();
+		final Person ada = DAO.$.selectFirst(new Criteria<>(Person.class).andEquals("id", 1L).fetch("countryId"));
+		assertSame(italy, ada.getCountry());
+		assertEquals(1, log.count());
+	}
+
+	@Test
+	public void withoutFetchEachReferenceIsLoaded() throws Exception {
+		final List<Person> people = DAO.$.select(new Criteria<>(Person.class).orderBy("id"));
+		assertEquals("Italy", people.get(0).getCountry().getName());
+		assertNull(people.get(3).getCountry());
+		assertTrue(log.count() > 1);
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2017 Alessandro Atria - a.atria@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dynami.orm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.Arrays;
+import java.util.List;
+
+import org.dynami.orm.DAO.IEntity;
+import org.dynami.orm.DAO.IField;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GeneratedKeysTest {
+	private Connection conn;
+
+	@IEntity(name = "gk_event")
+	public static class Event {
+		@IField(pk = true, serial = true)
+		private long id;
+		@IField
+		private String name;
+
+		public Event() {}
+
+		public Event(String name) {
+			this.name = name;
+		}
+
+		public long getId() { return id; }
+		public void setId(long id) { this.id = id; }
+		public String getName() { return name; }
+		public void setName(String name) { this.name = name; }
+	}
+
+	@IEntity(name = "gk_tag")
+	public static class Tag {
+		@IField(pk = true, serial = true)
+		private int id;
+		@IField
+		private String name;
+
+		public Tag() {}
+
+		public Tag(String name) {
+			this.name = name;
+		}
+
+		public int getId() { return id; }
+		public void setId(int id) { this.id = id; }
+		public String getName() { return name; }
+		public void setName(String name) { this.name = name; }
+	}
+
+	@IEntity(name = "gk_line")
+	public static class Line {
+		@IField(pk = true)
+		private long invoice;
+		@IField(pk = true, serial = true)
+		private long id;
+
+		public long getInvoice() { return invoice; }
+		public void setInvoice(long invoice) { this.invoice = invoice; }
+		public long getId() { return id; }
+		public void setId(long id) { this.id = id; }
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		conn = DriverManager.getConnection("jdbc:sqlite::memory:");
+		DAO.$.setup(DAO.SqlDialect.Sqlite, new DAO.SingleConnectionDataSource(conn));
+		DAO.$.register(Event.class, Tag.class);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		DAO.$.setMultiRowInsert(false);
+		conn.close();
+	}
+
+	@Test
+	public void insertValuesSerialField() throws Exception {
+		final Event first = new Event("first");
+		final Event second = new Event("second");
+		DAO.$.insert(first);
+		DAO.$.insert(second);
+		assertTrue(first.getId() > 0);
+		assertEquals(first.getId() + 1, second.getId());
+		assertEquals("second", DAO.$.load(Event.class, second.getId()).getName());
+
+		final Tag tag = new Tag("tag");
+		DAO.$.insert(tag);
+		assertEquals("tag", DAO.$.load(Tag.class, (long)tag.getId()).getName());
+	}
+
+	@Test
+	public void insertAllValuesEachSerialField() throws Exception {
+		final List<Event> events = Arrays.asList(new Event("a"), new Event("b"), new Event("c"));
+		DAO.$.insertAll(events);
+		for(Event event : events){
+			assertEquals(event.getName(), DAO.$.load(Event.class, event.getId()).getName());
+		}
+		assertEquals(events.get(0).getId() + 2, events.get(2).getId());
+	}
+
+	@Test
+	public void multiRowInsertValuesEachSerialField() throws Exception {
+		DAO.$.setMultiRowInsert(true);
+		final List<Tag> tags = Arrays.asList(new Tag("a"), new Tag("b"));
+		DAO.$.insertAll(tags);
+		for(Tag tag : tags){
+			assertEquals(tag.getName(), DAO.$.load(Tag.class, (long)tag.getId()).getName());
+		}
+	}
+
+	@Test
+	public void sqliteSerialFieldMustBeTheOnlyPrimaryKey() throws Exception {
+		assertTrue(DAOReflect.sqlTableScript(DAO.SqlDialect.Sqlite, Event.class).contains("PRIMARY KEY AUTOINCREMENT"));
+		try {
+			DAOReflect.sqlTableScript(DAO.SqlDialect.Sqlite, Line.class);
+			fail("serial field accepted in a composite primary key");
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage().contains(Line.class.getName()));
+		}
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2017 Alessandro Atria - a.atria@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dynami.orm;
+
+import static org.junit.Assert.assertEquals;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.dynami.orm.DAO.IEntity;
+import org.dynami.orm.DAO.IField;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class KeysetTest {
+	private Connection conn;
+
+	@IEntity(name = "keyset_tick")
+	public static class Tick {
+		@IField(pk = true)
+		private long id;
+		@IField
+		private long time;
+
+		public Tick() {}
+
+		public Tick(long id, long time) {
+			this.id = id;
+			this.time = time;
+		}
+
+		public long getId() { return id; }
+		public void setId(long id) { this.id = id; }
+		public long getTime() { return time; }
+		public void setTime(long time) { this.time = time; }
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		conn = DriverManager.getConnection("jdbc:sqlite::memory:");
+		DAO.$.setup(DAO.SqlDialect.Sqlite, new DAO.SingleConnectionDataSource(conn));
+		DAO.$.register(Tick.class);
+		// three ticks share each time, so pages split ties
+		final List<Tick> ticks = new ArrayList<>();
+		for (int id = 1; id <= 9; id++) {
+			ticks.add(new Tick(id, 100 + (id - 1) / 3));
+		}
+		DAO.$.insertAll(ticks);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		conn.close();
+	}
+
+	private static List<Long> ids(Iterable<List<Tick>> pages) {
+		final List<Long> ids = new ArrayList<>();
+		for(List<Tick> page : pages){
+			for(Tick tick : page){
+				ids.add(tick.getId());
+			}
+		}
+		return ids;
+	}
+
+	private static List<Long> ids(long... ids) {
+		final List<Long> out = new ArrayList<>();
+		for(long id : ids) out.add(id);
+		return out;
+	}
+
+	@Test
+	public void afterSkipsRowsUpToValues() throws Exception {
+		final List<Tick> page = DAO.$.select(new Criteria<>(Tick.class).orderBy("time", "id").after(101L, 5L).limit(3));
+		assertEquals(3, page.size());
+		assertEquals(6L, page.get(0).getId());
+		assertEquals(8L, page.get(2).getId());
+	}
+
+	@Test
+	public void afterAcceptsLastEntityOfPreviousPage() throws Exception {
+		final Tick last = DAO.$.load(Tick.class, 4L);
+		final List<Tick> page = DAO.$.select(new Criteria<>(Tick.class).orderBy("time", "id").after(last).limit(2));
+		assertEquals(5L, page.get(0).getId());
+		assertEquals(6L, page.get(1).getId());
+	}
+
+	@Test
+	public void pagesVisitEachRowOnceAcrossTies() throws Exception {
+		final Criteria<Tick> criteria = new Criteria<>(Tick.class).orderBy("time", "id");
+		assertEquals(ids(1, 2, 3, 4, 5, 6, 7, 8, 9), ids(DAO.$.pages(criteria, 2)));
+		// page size dividing the rows ends with an empty query
+		assertEquals(ids(1, 2, 3, 4, 5, 6, 7, 8, 9), ids(DAO.$.pages(new Criteria<>(Tick.class).orderBy("time", "id"), 3)));
+	}
+
+	@Test
+	public void pagesFollowMixedSortDirections() throws Exception {
+		final Criteria<Tick> criteria = new Criteria<>(Tick.class).orderBy("time desc", "id");
+		assertEquals(ids(7, 8, 9, 4, 5, 6, 1, 2, 3), ids(DAO.$.pages(criteria, 2)));
+	}
+
+	@Test
+	public void pagesStartAfterCriteriaValues() throws Exception {
+		final Criteria<Tick> criteria = new Criteria<>(Tick.class).orderBy("time", "id").after(102L, 7L);
+		assertEquals(ids(8, 9), ids(DAO.$.pages(criteria, 4)));
+	}
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2017 Alessandro Atria - a.atria@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dynami.orm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.dynami.orm.DAO.IEntity;
+import org.dynami.orm.DAO.IField;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LazyTest {
+	private Connection conn;
+	private StatementLog log;
+
+	@IEntity(name = "lazy_instrument")
+	public static class Instrument {
+		@IField(pk = true)
+		private long id;
+		@IField
+		private String symbol;
+
+		public Instrument() {}
+
+		public Instrument(long id, String symbol) {
+			this.id = id;
+			this.symbol = symbol;
+		}
+
+		public long getId() { return id; }
+		public void setId(long id) { this.id = id; }
+		public String getSymbol() { return symbol; }
+		public void setSymbol(String symbol) { this.symbol = symbol; }
+	}
+
+	@IEntity(name = "lazy_trade")
+	public static class Trade {
+		@IField(pk = true)
+		private long id;
+		@IField(fk = Instrument.class, lazy = true)
+		private long instrumentId;
+		private Lazy<Instrument> instrument;
+
+		public Trade() {}
+
+		public Trade(long id, long instrumentId) {
+			this.id = id;
+			this.instrumentId = instrumentId;
+		}
+
+		public long getId() { return id; }
+		public void setId(long id) { this.id = id; }
+		public long getInstrumentId() { return instrumentId; }
+		public void setInstrumentId(long instrumentId) { this.instrumentId = instrumentId; }
+		public Lazy<Instrument> getInstrument() { return instrument; }
+		public void loadInstrument(Lazy<Instrument> instrument) { this.instrument = instrument; }
+	}
+
+	@IEntity(name = "lazy_order")
+	public static class Order {
+		@IField(pk = true)
+		private long id;
+		@IField(fk = Instrument.class)
+		private long instrumentId;
+		private Instrument instrument;
+		private Lazy<Instrument> lazyInstrument;
+
+		public Order() {}
+
+		public Order(long id, long instrumentId) {
+			this.id = id;
+			this.instrumentId = instrumentId;
+		}
+
+		public long getId() { return id; }
+		public void setId(long id) { this.id = id; }
+		public long getInstrumentId() { return instrumentId; }
+		public void setInstrumentId(long instrumentId) { this.instrumentId = instrumentId; }
+		public Instrument getInstrument() { return instrument; }
+		public Lazy<Instrument> getLazyInstrument() { return lazyInstrument; }
+		public void loadInstrument(Instrument instrument) { this.instrument = instrument; }
+		public void loadInstrument(Lazy<Instrument> instrument) { this.lazyInstrument = instrument; }
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		conn = DriverManager.getConnection("jdbc:sqlite::memory:");
+		log = new StatementLog(conn);
+		DAO.$.setup(DAO.SqlDialect.Sqlite, new DAO.SingleConnectionDataSource(log.connection));
+		DAO.$.register(Instrument.class, Trade.class, Order.class);
+		DAO.$.insert(new Instrument(1, "AAA"));
+		DAO.$.insert(new Instrument(2, "BBB"));
+		DAO.$.insert(new Trade(1, 1));
+		DAO.$.insert(new Trade(2, 2));
+		DAO.$.insert(new Trade(3, 1));
+		// references a missing instrument
+		DAO.$.insert(new Trade(4, 9));
+		DAO.$.insert(new Order(1, 2));
+		log.clear();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		conn.close();
+	}
+
+	private List<Lazy<Instrument>> instruments(List<Trade> trades) {
+		final List<Lazy<Instrument>> out = new ArrayList<>();
+		for(Trade trade : trades){
+			out.add(trade.getInstrument());
+		}
+		return out;
+	}
+
+	@Test
+	public void lazyReferencesAreLoadedOnFirstAccess() throws Exception {
+		final List<Trade> trades = DAO.$.select(new Criteria<>(Trade.class).orderBy("id"));
+		assertEquals(1, log.count());
+		final Lazy<Instrument> first = trades.get(0).getInstrument();
+		assertFalse(first.isResolved());
+		assertEquals(1L, first.key());
+		assertEquals("AAA", first.get().getSymbol());
+		assertTrue(first.isResolved());
+		assertSame(first.get(), first.get());
+		assertEquals(2, log.count());
+		assertNull(trades.get(3).getInstrument().get());
+	}
+
+	@Test
+	public void resolveLoadsReferencesWithOneQuery() throws Exception {
+		final List<Trade> trades = DAO.$.select(new Criteria<>(Trade.class).orderBy("id"));
+		log.clear();
+		assertEquals(4, DAO.$.resolve(instruments(trades)));
+		assertEquals(1, log.count());
+		assertTrue(log.prepared.get(0).contains(" in "));
+		assertEquals("AAA", trades.get(0).getInstrument().get().getSymbol());
+		assertEquals("BBB", trades.get(1).getInstrument().get().getSymbol());
+		assertSame(trades.get(0).getInstrument().get(), trades.get(2).getInstrument().get());
+		assertNull(trades.get(3).getInstrument().get());
+		// resolved references aren't loaded again
+		assertEquals(0, DAO.$.resolve(instruments(trades)));
+		assertEquals(1, log.count());
+	}
+
+	@Test
+	public void criteriaMakesForeignKeysLazy() throws Exception {
+		final Order loaded = DAO.$.select(new Criteria<>(Order.class)).get(0);
+		assertEquals("BBB", loaded.getInstrument().getSymbol());
+		assertNull(loaded.getLazyInstrument());
+		log.clear();
+		final Order lazy = DAO.$.select(new Criteria<>(Order.class).lazy("instrumentId")).get(0);
+		assertEquals(1, log.count());
+		assertNull(lazy.getInstrument());
+		assertEquals("BBB", lazy.getLazyInstrument().get().getSymbol());
+	}
+}
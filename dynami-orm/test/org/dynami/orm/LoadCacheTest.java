@@ -0,0 +1,115 @@
+/*
+ * Copyright 2017 Alessandro Atria - a.atria@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dynami.orm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+
+import org.dynami.orm.DAO.IEntity;
+import org.dynami.orm.DAO.IField;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LoadCacheTest {
+	private Connection conn;
+
+	@IEntity(name = "lc_quote", cache = true, cacheSize = 2)
+	public static class Quote {
+		@IField(pk = true)
+		private int id;
+		@IField
+		private double price;
+
+		public Quote() {}
+
+		public Quote(int id, double price) {
+			this.id = id;
+			this.price = price;
+		}
+
+		public int getId() { return id; }
+		public void setId(int id) { this.id = id; }
+		public double getPrice() { return price; }
+		public void setPrice(double price) { this.price = price; }
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		conn = DriverManager.getConnection("jdbc:sqlite::memory:");
+		DAO.$.setup(DAO.SqlDialect.Sqlite, new DAO.SingleConnectionDataSource(conn));
+		// discards entities cached by previous tests
+		DAO.$.setCacheFactory((clazz, config) -> new LongKeyEntityCache(config.cacheSize(), config.cacheTtl()));
+		DAO.$.register(Quote.class);
+		// inserted bypassing the cache
+		for (int id = 1; id <= 3; id++) {
+			DAO.$.executeNativeSQL("insert into lc_quote (id, price) values (?, ?)", id, id * 10.0);
+		}
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		conn.close();
+	}
+
+	@Test
+	public void loadHitsCacheWithoutQuery() throws Exception {
+		final Quote quote = DAO.$.load(Quote.class, 1L);
+		// served from cache even when the row is gone
+		DAO.$.executeNativeSQL("delete from lc_quote");
+		assertSame(quote, DAO.$.load(Quote.class, 1L));
+		assertSame(quote, DAO.$.load(Quote.class, (Object)1));
+		assertEquals(2, DAO.$.cacheStats(Quote.class).hits());
+	}
+
+	@Test
+	public void cacheIsBoundedByCacheSize() throws Exception {
+		final Quote first = DAO.$.load(Quote.class, 1L);
+		final Quote second = DAO.$.load(Quote.class, 2L);
+		assertSame(first, DAO.$.load(Quote.class, 1L));
+		DAO.$.load(Quote.class, 3L);
+		final EntityCache.Stats stats = DAO.$.cacheStats(Quote.class);
+		assertEquals(2, stats.size());
+		assertEquals(1, stats.evictions());
+		// the entity not used since cached is evicted and loaded again
+		assertSame(first, DAO.$.load(Quote.class, 1L));
+		assertNotSame(second, DAO.$.load(Quote.class, 2L));
+	}
+
+	@Test
+	public void writesInvalidateCachedEntities() throws Exception {
+		final Quote quote = DAO.$.load(Quote.class, 1L);
+		DAO.$.update(new Quote(1, 11.0));
+		final Quote updated = DAO.$.load(Quote.class, 1L);
+		assertNotSame(quote, updated);
+		assertEquals(11.0, updated.getPrice(), 0);
+		DAO.$.delete(updated);
+		assertNull(DAO.$.load(Quote.class, 1L));
+	}
+
+	@Test
+	public void otherCachesAreLookedUpWithBoxedKeys() throws Exception {
+		DAO.$.setCacheFactory((clazz, config) -> new LruEntityCache(config.cacheSize(), config.cacheTtl()));
+		final Quote quote = DAO.$.load(Quote.class, 2L);
+		assertSame(quote, DAO.$.load(Quote.class, 2L));
+		assertEquals(1, DAO.$.cacheStats(Quote.class).hits());
+	}
+}
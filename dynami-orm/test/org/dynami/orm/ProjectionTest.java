@@ -0,0 +1,186 @@
+/*
+ * Copyright 2017 Alessandro Atria - a.atria@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dynami.orm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.Arrays;
+import java.util.List;
+
+import org.dynami.orm.DAO.IEntity;
+import org.dynami.orm.DAO.IField;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ProjectionTest {
+	private Connection conn;
+	private StatementLog log;
+
+	@IEntity(name = "proj_sector")
+	public static class Sector {
+		@IField(pk = true)
+		private long id;
+		@IField
+		private String name;
+
+		public Sector() {}
+
+		public Sector(long id, String name) {
+			this.id = id;
+			this.name = name;
+		}
+
+		public long getId() { return id; }
+		public void setId(long id) { this.id = id; }
+		public String getName() { return name; }
+		public void setName(String name) { this.name = name; }
+	}
+
+	@IEntity(name = "proj_stock")
+	public static class Stock {
+		@IField(pk = true)
+		private long id;
+		@IField
+		private String symbol;
+		@IField(name = "descr")
+		private String description;
+		@IField
+		private double price;
+		@IField(fk = Sector.class)
+		private long sectorId;
+		private Sector sector;
+
+		public Stock() {}
+
+		public Stock(long id, String symbol, String description, double price, long sectorId) {
+			this.id = id;
+			this.symbol = symbol;
+			this.description = description;
+			this.price = price;
+			this.sectorId = sectorId;
+		}
+
+		public long getId() { return id; }
+		public void setId(long id) { this.id = id; }
+		public String getSymbol() { return symbol; }
+		public void setSymbol(String symbol) { this.symbol = symbol; }
+		public String getDescription() { return description; }
+		public void setDescription(String description) { this.description = description; }
+		public double getPrice() { return price; }
+		public void setPrice(double price) { this.price = price; }
+		public long getSectorId() { return sectorId; }
+		public void setSectorId(long sectorId) { this.sectorId = sectorId; }
+		public Sector getSector() { return sector; }
+		public void loadSector(Sector sector) { this.sector = sector; }
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		conn = DriverManager.getConnection("jdbc:sqlite::memory:");
+		log = new StatementLog(conn);
+		DAO.$.setup(DAO.SqlDialect.Sqlite, new DAO.SingleConnectionDataSource(log.connection));
+		DAO.$.register(Sector.class, Stock.class);
+		DAO.$.insert(new Sector(1, "Tech"));
+		DAO.$.insert(new Stock(1, "AAA", "first", 10.0, 1));
+		DAO.$.insert(new Stock(2, "BBB", "second", 20.0, 1));
+		log.clear();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		conn.close();
+	}
+
+	@Test
+	public void projectionValuesOnlySelectedFields() throws Exception {
+		final List<Stock> stocks = DAO.$.select(new Criteria<>(Stock.class).select("symbol").orderBy("price desc"));
+		assertEquals(1, log.count());
+		final String sql = log.prepared.get(0);
+		assertFalse(sql.contains("descr"));
+		assertFalse(sql.contains("sectorId"));
+
+		final Stock first = stocks.get(0);
+		assertEquals(2L, first.getId());
+		assertEquals("BBB", first.getSymbol());
+		// order by fields are selected too
+		assertEquals(20.0, first.getPrice(), 0);
+		assertNull(first.getDescription());
+		assertEquals(0L, first.getSectorId());
+		assertNull(first.getSector());
+	}
+
+	@Test
+	public void projectionAcceptsColumnNames() throws Exception {
+		final Stock stock = DAO.$.selectFirst(new Criteria<>(Stock.class).select("descr").andEquals("id", 1L));
+		assertEquals("first", stock.getDescription());
+		assertNull(stock.getSymbol());
+	}
+
+	@Test
+	public void projectionRejectsUnknownFields() throws Exception {
+		try {
+			new Criteria<>(Stock.class).select("symbol", "volume");
+			fail("unknown field projected");
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage().contains("volume"));
+			assertTrue(e.getMessage().contains(Stock.class.getName()));
+		}
+	}
+
+	@Test
+	public void selectedForeignKeysAreLoaded() throws Exception {
+		final Stock stock = DAO.$.selectFirst(new Criteria<>(Stock.class).select("sectorId").andEquals("id", 1L));
+		assertEquals("Tech", stock.getSector().getName());
+	}
+
+	@Test
+	public void partialEntitiesAreNotWritten() throws Exception {
+		final Stock stock = DAO.$.selectFirst(new Criteria<>(Stock.class).select("price").andEquals("id", 1L));
+		stock.setPrice(11.0);
+		try {
+			DAO.$.update(stock);
+			fail("partial entity updated");
+		} catch (IllegalArgumentException e) {}
+		try {
+			DAO.$.save(stock);
+			fail("partial entity saved");
+		} catch (IllegalArgumentException e) {}
+		try {
+			DAO.$.updateAll(Arrays.asList(stock));
+			fail("partial entity updated");
+		} catch (IllegalArgumentException e) {}
+		try {
+			DAO.$.upsertAll(Arrays.asList(stock));
+			fail("partial entity saved");
+		} catch (IllegalArgumentException e) {}
+		assertEquals("first", DAO.$.load(Stock.class, 1L).getDescription());
+		assertEquals(10.0, DAO.$.load(Stock.class, 1L).getPrice(), 0);
+
+		// loading all fields makes it writable
+		DAO.$.get(stock);
+		stock.setPrice(11.0);
+		assertEquals(1, DAO.$.update(stock));
+		assertEquals(11.0, DAO.$.load(Stock.class, 1L).getPrice(), 0);
+		assertEquals("first", DAO.$.load(Stock.class, 1L).getDescription());
+	}
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2017 Alessandro Atria - a.atria@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dynami.orm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.dynami.orm.DAO.IEntity;
+import org.dynami.orm.DAO.IField;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SessionTest {
+	private File file;
+
+	@IEntity(name = "session_note")
+	public static class Note {
+		@IField(pk = true)
+		private long id;
+		@IField
+		private String text;
+
+		public Note() {}
+
+		public Note(long id, String text) {
+			this.id = id;
+			this.text = text;
+		}
+
+		public long getId() { return id; }
+		public void setId(long id) { this.id = id; }
+		public String getText() { return text; }
+		public void setText(String text) { this.text = text; }
+	}
+
+	/**
+	 * New connection to the database file at each request, as a pool would hand out
+	 */
+	private class FileDataSource extends DAO.SingleConnectionDataSource {
+		FileDataSource() {
+			super(null);
+		}
+
+		@Override
+		public Connection getConnection() throws SQLException {
+			return DriverManager.getConnection("jdbc:sqlite:"+file.getPath());
+		}
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("session", ".db");
+		DAO.$.setup(DAO.SqlDialect.Sqlite, new FileDataSource(), Connection::close);
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	private boolean tableExists() throws SQLException {
+		try(Connection conn = DriverManager.getConnection("jdbc:sqlite:"+file.getPath());
+				ResultSet res = conn.createStatement().executeQuery("select 1 from sqlite_master where name = 'session_note'")){
+			return res.next();
+		}
+	}
+
+	@Test
+	public void transactionCommitsAllCalls() throws Exception {
+		DAO.$.register(Note.class);
+		DAO.$.inTransaction(s -> {
+			DAO.$.insert(new Note(1, "one"));
+			DAO.$.insert(new Note(2, "two"));
+			DAO.$.update(new Note(1, "uno"));
+		});
+		assertEquals("uno", DAO.$.load(Note.class, 1L).getText());
+		assertEquals("two", DAO.$.load(Note.class, 2L).getText());
+	}
+
+	@Test
+	public void transactionRollsBackAllCalls() throws Exception {
+		DAO.$.register(Note.class);
+		DAO.$.insert(new Note(1, "one"));
+		try {
+			DAO.$.inTransaction(s -> {
+				DAO.$.insert(new Note(2, "two"));
+				DAO.$.delete(new Note(1, "one"));
+				throw new IllegalStateException("abort");
+			});
+			fail("transaction not aborted");
+		} catch (IllegalStateException e) {
+			assertEquals("abort", e.getMessage());
+		}
+		assertEquals("one", DAO.$.load(Note.class, 1L).getText());
+		assertNull(DAO.$.load(Note.class, 2L));
+	}
+
+	@Test
+	public void sessionLeavesCommitToCaller() throws Exception {
+		DAO.$.register(Note.class);
+		try(Session session = DAO.$.session()){
+			DAO.$.insert(new Note(1, "one"));
+			session.rollback();
+			DAO.$.insert(new Note(2, "two"));
+			session.commit();
+			DAO.$.insert(new Note(3, "three"));
+		}
+		assertNull(DAO.$.load(Note.class, 1L));
+		assertEquals("two", DAO.$.load(Note.class, 2L).getText());
+		// not committed before close
+		assertNull(DAO.$.load(Note.class, 3L));
+	}
+
+	@Test
+	public void rollbackForgetsTableCreatedInTransaction() throws Exception {
+		try(Session session = DAO.$.session()){
+			DAO.$.insert(new Note(1, "one"));
+			session.rollback();
+		}
+		// Sqlite creates the table in the session transaction
+		assertFalse(tableExists());
+		DAO.$.insert(new Note(2, "two"));
+		assertEquals("two", DAO.$.load(Note.class, 2L).getText());
+	}
+
+	@Test
+	public void tableIsCreatedOutsideTransaction() throws Exception {
+		// any dialect but Sqlite creates tables on another connection, this table script is valid on Sqlite too
+		DAO.$.setup(DAO.SqlDialect.PostgreSql, new FileDataSource(), Connection::close);
+		try(Session session = DAO.$.session()){
+			DAO.$.insert(new Note(1, "one"));
+			session.rollback();
+		}
+		assertTrue(tableExists());
+		try(Connection conn = DriverManager.getConnection("jdbc:sqlite:"+file.getPath());
+				ResultSet res = conn.createStatement().executeQuery("select count(*) from session_note")){
+			assertTrue(res.next());
+			assertEquals(0, res.getInt(1));
+		}
+	}
+}
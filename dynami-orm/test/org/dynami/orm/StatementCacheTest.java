@@ -0,0 +1,143 @@
+/*
+ * Copyright 2017 Alessandro Atria - a.atria@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dynami.orm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+
+import org.dynami.orm.DAO.IEntity;
+import org.dynami.orm.DAO.IField;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StatementCacheTest {
+	private Connection conn;
+	private StatementLog log;
+
+	@IEntity(name = "sc_item")
+	public static class Item {
+		@IField(pk = true)
+		private long id;
+		@IField
+		private String name;
+
+		public Item() {}
+
+		public Item(long id, String name) {
+			this.id = id;
+			this.name = name;
+		}
+
+		public long getId() { return id; }
+		public void setId(long id) { this.id = id; }
+		public String getName() { return name; }
+		public void setName(String name) { this.name = name; }
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		conn = DriverManager.getConnection("jdbc:sqlite::memory:");
+		log = new StatementLog(conn);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		DAO.$.setStatementCacheSize(0);
+		conn.close();
+	}
+
+	@Test
+	public void releasedStatementsAreReused() throws Exception {
+		final StatementCache cache = new StatementCache();
+		cache.resize(10);
+		final PreparedStatement first = cache.acquire(conn, "select 1");
+		// in use statements aren't shared
+		final PreparedStatement second = cache.acquire(conn, "select 1");
+		assertNotSame(first, second);
+		cache.release(conn, first);
+		cache.release(conn, second);
+		assertTrue(second.isClosed());
+		assertSame(first, cache.acquire(conn, "select 1"));
+
+		final EntityCache.Stats stats = cache.stats();
+		assertEquals(1, stats.hits());
+		assertEquals(2, stats.misses());
+	}
+
+	@Test
+	public void releaseRestoresStatementSettings() throws Exception {
+		final StatementCache cache = new StatementCache();
+		cache.resize(10);
+		final PreparedStatement pstmt = cache.acquire(conn, "select 1");
+		final int fetchSize = pstmt.getFetchSize();
+		pstmt.setFetchSize(fetchSize + 7);
+		pstmt.setMaxRows(3);
+		cache.release(conn, pstmt);
+		assertSame(pstmt, cache.acquire(conn, "select 1"));
+		assertEquals(fetchSize, pstmt.getFetchSize());
+		assertEquals(0, pstmt.getMaxRows());
+	}
+
+	@Test
+	public void shrinkingClosesLeastRecentlyUsed() throws Exception {
+		final StatementCache cache = new StatementCache();
+		cache.resize(3);
+		final PreparedStatement[] statements = new PreparedStatement[3];
+		for (int i = 0; i < statements.length; i++) {
+			statements[i] = cache.acquire(conn, "select "+i);
+		}
+		for(PreparedStatement pstmt : statements){
+			cache.release(conn, pstmt);
+		}
+		cache.resize(1);
+		assertTrue(statements[0].isClosed());
+		assertTrue(statements[1].isClosed());
+		assertFalse(statements[2].isClosed());
+		assertEquals(1, cache.stats().size());
+		assertEquals(2, cache.stats().evictions());
+
+		cache.invalidate(conn);
+		assertTrue(statements[2].isClosed());
+		assertEquals(0, cache.stats().size());
+	}
+
+	@Test
+	public void daoPreparesEachStatementOnce() throws Exception {
+		DAO.$.setup(DAO.SqlDialect.Sqlite, new DAO.SingleConnectionDataSource(log.connection));
+		DAO.$.setStatementCacheSize(10);
+		DAO.$.register(Item.class);
+		DAO.$.insert(new Item(1, "one"));
+		DAO.$.insert(new Item(2, "two"));
+		assertEquals("one", DAO.$.load(Item.class, 1L).getName());
+		assertEquals("two", DAO.$.load(Item.class, 2L).getName());
+		int inserts = 0, selects = 0;
+		for(String sql : log.prepared){
+			if(sql.startsWith("insert")) inserts++;
+			if(sql.startsWith("select")) selects++;
+		}
+		assertEquals(1, inserts);
+		assertEquals(1, selects);
+		assertEquals(2, DAO.$.statementCacheStats().hits());
+	}
+}
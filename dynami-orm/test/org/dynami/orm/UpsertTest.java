@@ -0,0 +1,152 @@
+/*
+ * Copyright 2017 Alessandro Atria - a.atria@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dynami.orm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.Arrays;
+
+import org.dynami.orm.DAO.IEntity;
+import org.dynami.orm.DAO.IField;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class UpsertTest {
+	private Connection conn;
+	private StatementLog log;
+
+	@IEntity(name = "upsert_price")
+	public static class Price {
+		@IField(pk = true)
+		private String symbol;
+		@IField(pk = true)
+		private long day;
+		@IField
+		private double close;
+
+		public Price() {}
+
+		public Price(String symbol, long day, double close) {
+			this.symbol = symbol;
+			this.day = day;
+			this.close = close;
+		}
+
+		public String getSymbol() { return symbol; }
+		public void setSymbol(String symbol) { this.symbol = symbol; }
+		public long getDay() { return day; }
+		public void setDay(long day) { this.day = day; }
+		public double getClose() { return close; }
+		public void setClose(double close) { this.close = close; }
+	}
+
+	@IEntity(name = "upsert_note")
+	public static class Note {
+		@IField(pk = true, serial = true)
+		private long id;
+		@IField
+		private String text;
+
+		public Note() {}
+
+		public Note(String text) {
+			this.text = text;
+		}
+
+		public long getId() { return id; }
+		public void setId(long id) { this.id = id; }
+		public String getText() { return text; }
+		public void setText(String text) { this.text = text; }
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		conn = DriverManager.getConnection("jdbc:sqlite::memory:");
+		log = new StatementLog(conn);
+		DAO.$.setup(DAO.SqlDialect.Sqlite, new DAO.SingleConnectionDataSource(log.connection));
+		DAO.$.register(Price.class, Note.class);
+		log.clear();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		DAO.$.setMultiRowInsert(false);
+		conn.close();
+	}
+
+	private double close(String symbol, long day) throws Exception {
+		return DAO.$.load(Price.class, symbol, day).getClose();
+	}
+
+	@Test
+	public void saveInsertsOrUpdatesWithOneStatement() throws Exception {
+		assertTrue(DAO.$.save(new Price("AAA", 1, 10.0)));
+		// Sqlite reports updated rows as written too
+		assertTrue(DAO.$.save(new Price("AAA", 1, 11.0)));
+		assertEquals(2, log.count());
+		assertEquals(log.prepared.get(0), log.prepared.get(1));
+		assertTrue(log.prepared.get(0).contains(" on conflict"));
+		assertEquals(11.0, close("AAA", 1), 0);
+		assertEquals(1, DAO.$.count(new Criteria<>(Price.class)));
+	}
+
+	@Test
+	public void saveOfSerialEntityUpdatesOrInserts() throws Exception {
+		final Note note = new Note("first");
+		assertTrue(DAO.$.save(note));
+		assertTrue(note.getId() > 0);
+		note.setText("second");
+		assertFalse(DAO.$.save(note));
+		assertEquals("second", DAO.$.load(Note.class, note.getId()).getText());
+		assertEquals(1, DAO.$.count(new Criteria<>(Note.class)));
+	}
+
+	@Test
+	public void upsertAllInsertsAndUpdates() throws Exception {
+		DAO.$.insert(new Price("AAA", 1, 10.0));
+		DAO.$.upsertAll(Arrays.asList(new Price("AAA", 1, 11.0), new Price("AAA", 2, 12.0), new Price("BBB", 1, 20.0)));
+		assertEquals(11.0, close("AAA", 1), 0);
+		assertEquals(12.0, close("AAA", 2), 0);
+		assertEquals(20.0, close("BBB", 1), 0);
+		assertEquals(3, DAO.$.count(new Criteria<>(Price.class)));
+	}
+
+	@Test
+	public void multiRowUpsert() throws Exception {
+		DAO.$.setMultiRowInsert(true);
+		DAO.$.insert(new Price("AAA", 1, 10.0));
+		DAO.$.upsertAll(Arrays.asList(new Price("AAA", 1, 11.0), new Price("AAA", 2, 12.0)));
+		assertEquals(11.0, close("AAA", 1), 0);
+		assertEquals(12.0, close("AAA", 2), 0);
+	}
+
+	@Test
+	public void saveAllCountsInsertedSerialEntities() throws Exception {
+		final Note existing = new Note("existing");
+		DAO.$.insert(existing);
+		existing.setText("updated");
+		final Note added = new Note("added");
+		assertEquals(1, DAO.$.saveAll(Arrays.asList(existing, added)));
+		assertTrue(added.getId() > existing.getId());
+		assertEquals("updated", DAO.$.load(Note.class, existing.getId()).getText());
+		assertEquals(2, DAO.$.count(new Criteria<>(Note.class)));
+	}
+}
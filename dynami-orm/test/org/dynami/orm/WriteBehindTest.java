@@ -0,0 +1,190 @@
+/*
+ * Copyright 2017 Alessandro Atria - a.atria@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dynami.orm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.List;
+
+import org.dynami.orm.DAO.IEntity;
+import org.dynami.orm.DAO.IField;
+import org.dynami.orm.WriteBehind.Op;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WriteBehindTest {
+	private Connection conn;
+
+	@IEntity(name = "wb_serial")
+	public static class Serial {
+		@IField(pk = true, serial = true)
+		private long id;
+		@IField
+		private String name;
+
+		public Serial() {}
+
+		public Serial(String name) {
+			this.name = name;
+		}
+
+		public long getId() { return id; }
+		public void setId(long id) { this.id = id; }
+		public String getName() { return name; }
+		public void setName(String name) { this.name = name; }
+	}
+
+	@IEntity(name = "wb_item")
+	public static class Item {
+		@IField(pk = true)
+		private long id;
+		@IField
+		private String name;
+
+		public Item() {}
+
+		public Item(long id, String name) {
+			this.id = id;
+			this.name = name;
+		}
+
+		public long getId() { return id; }
+		public void setId(long id) { this.id = id; }
+		public String getName() { return name; }
+		public void setName(String name) { this.name = name; }
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		conn = DriverManager.getConnection("jdbc:sqlite::memory:");
+		DAO.$.setup(DAO.SqlDialect.Sqlite, new DAO.SingleConnectionDataSource(conn));
+		DAO.$.register(Serial.class, Item.class);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		conn.close();
+	}
+
+	@Test
+	public void mergeRules() {
+		assertSame(Op.INSERT, WriteBehind.merge(null, Op.INSERT));
+		assertSame(Op.INSERT, WriteBehind.merge(Op.INSERT, Op.UPDATE));
+		assertSame(Op.INSERT, WriteBehind.merge(Op.INSERT, Op.SAVE));
+		assertNull(WriteBehind.merge(Op.INSERT, Op.DELETE));
+		assertSame(Op.UPDATE, WriteBehind.merge(Op.UPDATE, Op.UPDATE));
+		assertSame(Op.SAVE, WriteBehind.merge(Op.UPDATE, Op.SAVE));
+		assertSame(Op.DELETE, WriteBehind.merge(Op.UPDATE, Op.DELETE));
+		assertSame(Op.SAVE, WriteBehind.merge(Op.SAVE, Op.UPDATE));
+		assertSame(Op.DELETE, WriteBehind.merge(Op.SAVE, Op.DELETE));
+		assertSame(Op.DELETE, WriteBehind.merge(Op.DELETE, Op.UPDATE));
+		assertSame(Op.SAVE, WriteBehind.merge(Op.DELETE, Op.SAVE));
+		assertSame(Op.SAVE, WriteBehind.merge(Op.DELETE, Op.INSERT));
+	}
+
+	@Test
+	public void unsavedSerialEntitiesAreKeyedByInstance() throws Exception {
+		final Serial a = new Serial("a");
+		final Serial b = new Serial("b");
+		try(WriteBehind wb = DAO.$.writeBehind(100, 1000, 0)){
+			wb.insert(a);
+			wb.delete(a);
+			assertEquals(0, wb.pending());
+			wb.insert(b);
+			b.setName("b2");
+			wb.update(b);
+			assertEquals(1, wb.pending());
+		}
+		final List<Serial> rows = DAO.$.select(new Criteria<>(Serial.class));
+		assertEquals(1, rows.size());
+		assertEquals("b2", rows.get(0).getName());
+		assertTrue(b.getId() > 0);
+	}
+
+	@Test
+	public void savedSerialEntitiesAreKeyedByPrimaryKey() throws Exception {
+		final Serial s = new Serial("s");
+		DAO.$.insert(s);
+		final Serial copy = new Serial("s2");
+		copy.setId(s.getId());
+		try(WriteBehind wb = DAO.$.writeBehind(100, 1000, 0)){
+			wb.update(s);
+			wb.update(copy);
+			assertEquals(1, wb.pending());
+		}
+		assertEquals("s2", DAO.$.load(Serial.class, s.getId()).getName());
+	}
+
+	@Test
+	public void writesOfTheSamePrimaryKeyAreCoalesced() throws Exception {
+		try(WriteBehind wb = DAO.$.writeBehind(100, 1000, 0)){
+			wb.insert(new Item(1, "one"));
+			wb.update(new Item(1, "uno"));
+			wb.insert(new Item(2, "two"));
+			wb.delete(new Item(2, "two"));
+			wb.save(new Item(3, "three"));
+			wb.delete(new Item(3, "three"));
+			assertEquals(2, wb.pending());
+		}
+		final List<Item> rows = DAO.$.select(new Criteria<>(Item.class));
+		assertEquals(1, rows.size());
+		assertEquals("uno", rows.get(0).getName());
+	}
+
+	@Test
+	public void failedWritesFailWritersAndCanBeDiscarded() throws Exception {
+		DAO.$.insert(new Item(1, "one"));
+		try(WriteBehind wb = DAO.$.writeBehind(2, 2, 0, 10000)){
+			wb.insert(new Item(1, "duplicate"));
+			try {
+				wb.flush();
+				fail("duplicate primary key flushed");
+			} catch (Exception e) {
+				assertSame(e, wb.failure());
+			}
+			assertEquals(1, wb.failed().size());
+			// fills the buffer, its background flush fails again
+			wb.insert(new Item(2, "two"));
+
+			final long start = System.currentTimeMillis();
+			try {
+				wb.insert(new Item(3, "three"));
+				fail("writer accepted in a buffer full of failed writes");
+			} catch (IllegalStateException e) {
+				assertSame(wb.failure(), e.getCause());
+			}
+			assertTrue(System.currentTimeMillis() - start < 5000);
+
+			final List<Object> discarded = wb.discardFailed();
+			assertEquals(2, discarded.size());
+			assertEquals(1L, ((Item)discarded.get(0)).getId());
+			assertNull(wb.failure());
+			assertEquals(0, wb.pending());
+			wb.insert(new Item(3, "three"));
+		}
+		assertEquals("one", DAO.$.load(Item.class, 1L).getName());
+		assertNull(DAO.$.load(Item.class, 2L));
+		assertNotNull(DAO.$.load(Item.class, 3L));
+	}
+}
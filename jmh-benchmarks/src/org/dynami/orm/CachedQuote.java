@@ -0,0 +1,102 @@
+/*
+ * Copyright 2017 Alessandro Atria - a.atria@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dynami.orm;
+
+import java.util.Date;
+
+import org.dynami.orm.DAO.IEntity;
+import org.dynami.orm.DAO.IField;
+
+/**
+ * Cached copy of {@link Quote}, loads of cached keys never reach the database
+ *
+ * @author Alessandro Atria - a.atria@gmail.com
+ *
+ */
+@IEntity(name = "cached_quote", cache = true, cacheSize = 100000)
+public class CachedQuote {
+	@IField(pk = true)
+	private long id;
+	@IField
+	private String symbol;
+	@IField
+	private double price;
+	@IField
+	private int qty;
+	@IField
+	private boolean buy;
+	@IField
+	private Date time;
+
+	public CachedQuote() {}
+
+	public CachedQuote(long id) {
+		this.id = id;
+		this.symbol = "SYM"+(id % 100);
+		this.price = 100 + (id % 1000) / 100.0;
+		this.qty = (int)(id % 50) + 1;
+		this.buy = (id & 1) == 0;
+		this.time = new Date(1500000000000L + id * 1000);
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public void setId(long id) {
+		this.id = id;
+	}
+
+	public String getSymbol() {
+		return symbol;
+	}
+
+	public void setSymbol(String symbol) {
+		this.symbol = symbol;
+	}
+
+	public double getPrice() {
+		return price;
+	}
+
+	public void setPrice(double price) {
+		this.price = price;
+	}
+
+	public int getQty() {
+		return qty;
+	}
+
+	public void setQty(int qty) {
+		this.qty = qty;
+	}
+
+	public boolean isBuy() {
+		return buy;
+	}
+
+	public void setBuy(boolean buy) {
+		this.buy = buy;
+	}
+
+	public Date getTime() {
+		return time;
+	}
+
+	public void setTime(Date time) {
+		this.time = time;
+	}
+}
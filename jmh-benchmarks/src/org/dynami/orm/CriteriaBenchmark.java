@@ -0,0 +1,69 @@
+/*
+ * Copyright 2017 Alessandro Atria - a.atria@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dynami.orm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of building criteria and their SQL text, without database access
+ *
+ * @author Alessandro Atria - a.atria@gmail.com
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CriteriaBenchmark {
+
+	@Setup
+	public void setup() {
+		DAOReflect.plan(Quote.class);
+	}
+
+	@Benchmark
+	public String byKey() throws Exception {
+		final List<Object> values = new ArrayList<>(1);
+		return SqlUtils.sqlSelectByCriteria(new Criteria<>(Quote.class).andEquals("id", 42L), DAO.SqlDialect.Sqlite, values);
+	}
+
+	@Benchmark
+	public String filtered() throws Exception {
+		final List<Object> values = new ArrayList<>(4);
+		final Criteria<Quote> criteria = new Criteria<>(Quote.class)
+				.andEquals("symbol", "SYM1")
+				.andEqualsGreaterThan("price", 100.5)
+				.andIn("qty", 1, 2, 3)
+				.orderBy("time")
+				.limit(100);
+		return SqlUtils.sqlSelectByCriteria(criteria, DAO.SqlDialect.Sqlite, values);
+	}
+}
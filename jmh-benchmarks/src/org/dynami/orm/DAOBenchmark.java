@@ -0,0 +1,97 @@
+/*
+ * Copyright 2017 Alessandro Atria - a.atria@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dynami.orm;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of DAO reads and writes of a single entity.
+ * load and loadVarargs read the same rows through {@link DAO#load(Class, long)} and {@link DAO#load(Class, Object...)}
+ *
+ * @author Alessandro Atria - a.atria@gmail.com
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DAOBenchmark {
+	private long key;
+	private long inserted = Database.ROWS;
+	private final Quote quote = new Quote();
+
+	private long next() {
+		return key = (key + 7919) % Database.ROWS;
+	}
+
+	@Benchmark
+	public Quote load(Database db) throws Exception {
+		return DAO.$.load(Quote.class, next());
+	}
+
+	@Benchmark
+	public CachedQuote loadCached(Database db) throws Exception {
+		return DAO.$.load(CachedQuote.class, next());
+	}
+
+	@Benchmark
+	public Quote loadVarargs(Database db) throws Exception {
+		return DAO.$.load(Quote.class, new Object[]{ next() });
+	}
+
+	@Benchmark
+	public CachedQuote loadCachedVarargs(Database db) throws Exception {
+		return DAO.$.load(CachedQuote.class, new Object[]{ next() });
+	}
+
+	@Benchmark
+	public Quote get(Database db) throws Exception {
+		quote.setId(next());
+		return DAO.$.get(quote);
+	}
+
+	/**
+	 * Inserts a new quote at each call, table grows during measurement
+	 */
+	@Benchmark
+	public int insert(Database db) throws Exception {
+		return DAO.$.insert(new Quote(inserted++));
+	}
+
+	@Benchmark
+	public int update(Database db) throws Exception {
+		final Quote q = new Quote(next());
+		q.setQty(q.getQty() + 1);
+		return DAO.$.update(q);
+	}
+
+	@Benchmark
+	public boolean save(Database db) throws Exception {
+		return DAO.$.save(new Quote(next()));
+	}
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2017 Alessandro Atria - a.atria@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dynami.orm;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * In-memory Sqlite database shared by the threads of a benchmark, holding {@link #ROWS} quotes in each table.
+ * Entities are mapped by their generated mapper, or by reflection when mappers is false.
+ *
+ * @author Alessandro Atria - a.atria@gmail.com
+ *
+ */
+@State(Scope.Benchmark)
+public class Database {
+	static final int ROWS = 10000;
+
+	@Param({"true", "false"})
+	public String mappers;
+
+	private Connection conn;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		// each trial runs in its own fork, before any entity is used
+		System.setProperty("dynami.orm.mappers", mappers);
+		conn = DriverManager.getConnection("jdbc:sqlite::memory:");
+		DAO.$.setup(DAO.SqlDialect.Sqlite, new DAO.SingleConnectionDataSource(conn));
+		DAO.$.register(Quote.class, CachedQuote.class);
+		final List<Quote> quotes = new ArrayList<>(ROWS);
+		final List<CachedQuote> cached = new ArrayList<>(ROWS);
+		for (int i = 0; i < ROWS; i++) {
+			quotes.add(new Quote(i));
+			cached.add(new CachedQuote(i));
+		}
+		DAO.$.insertAll(quotes);
+		DAO.$.insertAll(cached);
+		for (int i = 0; i < ROWS; i++) {
+			DAO.$.load(CachedQuote.class, i);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		conn.close();
+	}
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2017 Alessandro Atria - a.atria@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dynami.orm;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of reading and writing entity fields through {@link DAOReflect}, by the generated mapper or, when mappers is false,
+ * by the accessors built through reflection
+ *
+ * @author Alessandro Atria - a.atria@gmail.com
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReflectBenchmark {
+	@Param({"true", "false"})
+	public String mappers;
+
+	private final Quote quote = new Quote(42);
+	private Field price;
+	private Field symbol;
+	private double value;
+
+	@Setup
+	public void setup() {
+		System.setProperty("dynami.orm.mappers", mappers);
+		DAOReflect.getEntity(Quote.class);
+		price = DAOReflect.getField(Quote.class, "price");
+		symbol = DAOReflect.getField(Quote.class, "symbol");
+	}
+
+	@Benchmark
+	public Object getDouble() throws Exception {
+		return DAOReflect.get(quote, price);
+	}
+
+	@Benchmark
+	public Object getString() throws Exception {
+		return DAOReflect.get(quote, symbol);
+	}
+
+	@Benchmark
+	public void setDouble() throws Exception {
+		DAOReflect.set(quote, price, value += 0.5);
+	}
+
+	@Benchmark
+	public void setString() throws Exception {
+		DAOReflect.set(quote, symbol, "SYM2");
+	}
+}